@@ -2,6 +2,9 @@ package me.light.blockchain.cli;
 
 
 import me.light.blockchain.core.*;
+import me.light.blockchain.mining.MiningCoordinator;
+import me.light.blockchain.mining.MiningProtocol;
+import me.light.blockchain.mining.MiningWorker;
 import me.light.blockchain.util.Base58Check;
 import me.light.blockchain.util.RocksDBUtils;
 import me.light.blockchain.util.WalletUtils;
@@ -9,7 +12,9 @@ import org.apache.commons.cli.*;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 
+import java.io.File;
 import java.util.Arrays;
+import java.util.concurrent.CancellationException;
 
 /**
  * 程序命令行工具入口
@@ -19,6 +24,11 @@ import java.util.Arrays;
  */
 public class CLI {
 
+	/**
+	 * 每个区块最多打包的交易池交易个数
+	 */
+	private static final int MAX_BLOCK_TRANSACTIONS = 1000;
+
 	private String[] args;
 	private Options options = new Options();
 
@@ -32,11 +42,22 @@ public class CLI {
 		Option sendFrom = Option.builder("from").hasArg(true).desc("Source wallet address").build();
 		Option sendTo = Option.builder("to").hasArg(true).desc("Destination wallet address").build();
 		Option sendAmount = Option.builder("amount").hasArg(true).desc("Amount to send").build();
+		Option host = Option.builder("host").hasArg(true).desc("Mining coordinator host").build();
+		Option port = Option.builder("port").hasArg(true).desc("Mining coordinator port").build();
+		Option coinSelection = Option.builder("coinselection").hasArg(true)
+				.desc("Coin selection strategy: largest, bnb or smallest").build();
+		Option file = Option.builder("file").hasArg(true).desc("UTXO snapshot file").build();
+		Option noMine = Option.builder("nomine").hasArg(false).desc("Only add the transaction to mempool").build();
 
 		options.addOption(address);
 		options.addOption(sendFrom);
 		options.addOption(sendTo);
 		options.addOption(sendAmount);
+		options.addOption(host);
+		options.addOption(port);
+		options.addOption(noMine);
+		options.addOption(file);
+		options.addOption(coinSelection);
 	}
 
 	/**
@@ -68,10 +89,46 @@ public class CLI {
 					String sendAmount = cmd.getOptionValue("amount");
 					if (StringUtils.isBlank(sendFrom) ||
 							StringUtils.isBlank(sendTo) ||
-							!NumberUtils.isDigits(sendAmount)) {
+							!NumberUtils.isDigits(sendAmount) ||
+							NumberUtils.toInt(sendAmount) <= 0) {
+						help();
+					}
+					CoinSelector selector = cmd.hasOption("coinselection")
+							? CoinSelector.of(cmd.getOptionValue("coinselection")) : CoinSelector.DEFAULT;
+					this.send(sendFrom, sendTo, Integer.valueOf(sendAmount), !cmd.hasOption("nomine"), selector);
+					break;
+				case "mine":
+					String mineAddress = cmd.getOptionValue("address");
+					if (StringUtils.isBlank(mineAddress)) {
 						help();
 					}
-					this.send(sendFrom, sendTo, Integer.valueOf(sendAmount));
+					this.mine(mineAddress);
+					break;
+				case "startcoordinator":
+					String coordinatorAddress = cmd.getOptionValue("address");
+					if (StringUtils.isBlank(coordinatorAddress)) {
+						help();
+					}
+					this.startCoordinator(coordinatorAddress,
+							NumberUtils.toInt(cmd.getOptionValue("port"), MiningProtocol.DEFAULT_PORT));
+					break;
+				case "startworker":
+					this.startWorker(cmd.getOptionValue("host", "127.0.0.1"),
+							NumberUtils.toInt(cmd.getOptionValue("port"), MiningProtocol.DEFAULT_PORT));
+					break;
+				case "dumputxoset":
+					String dumpFile = cmd.getOptionValue("file");
+					if (StringUtils.isBlank(dumpFile)) {
+						help();
+					}
+					this.dumpUTXOSet(dumpFile);
+					break;
+				case "loadutxoset":
+					String loadFile = cmd.getOptionValue("file");
+					if (StringUtils.isBlank(loadFile)) {
+						help();
+					}
+					this.loadUTXOSet(loadFile);
 					break;
 				case "createwallet":
 					this.createWallet();
@@ -87,6 +144,7 @@ public class CLI {
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
+			CoinsCache.getInstance().flush();
 			RocksDBUtils.getInstance().closeDB();
 		}
 	}
@@ -120,39 +178,131 @@ public class CLI {
 	 * @param address 钱包地址
 	 */
 	private void getBalance(String address) throws Exception {
-		Blockchain blockchain = Blockchain.newBlockChain(address);
+		// 只导入了UTXO池快照、还没有区块数据的节点也可以查询余额
+		if (StringUtils.isNotBlank(RocksDBUtils.getInstance().getLastBlockHash())) {
+			Blockchain.initBlockchainFromDB();
+		}
 		// 得到公钥Hash值
 		byte[] versionedPayload = Base58Check.base58ToBytes(address);
 		byte[] pubKeyHash = Arrays.copyOfRange(versionedPayload, 1, versionedPayload.length);
-		TransactionOutput[] txOutputs = blockchain.findUTXO(pubKeyHash);
-		int balance = 0;
-		if (txOutputs != null && txOutputs.length > 0) {
-			for (TransactionOutput txOutput : txOutputs) {
-				balance += txOutput.getValue();
-			}
-		}
+		long balance = new UTXOSet().getBalance(pubKeyHash);
 		System.out.printf("Balance of '%s': %d\n", address, balance);
 	}
 
 	/**
-	 * 转账
+	 * 转账，交易先加入交易池，再打包交易池中的交易挖矿
 	 *
 	 * @param from
 	 * @param to
 	 * @param amount
+	 * @param mine     是否立即挖矿
+	 * @param selector 选择交易输入的策略
 	 */
-	private void send(String from, String to, int amount) throws Exception {
+	private void send(String from, String to, int amount, boolean mine, CoinSelector selector) throws Exception {
 		Blockchain blockchain = Blockchain.newBlockChain(from);
-		//新交易
-		Transaction transaction = Transaction.newTransaction(from, to, amount, blockchain);
-		//奖励
-		Transaction rewardTx = Transaction.newCoinbaseTransaction(from, "");
-		Block newBlock = blockchain.mineBlock(new Transaction[]{transaction, rewardTx});
-		new UTXOSet(blockchain).update(newBlock);
-		RocksDBUtils.getInstance().closeDB();
+		Mempool mempool = Mempool.load(blockchain);
+		//新交易，不使用已经被交易池中的交易花费的输出
+		Transaction transaction = Transaction.newTransaction(from, to, amount, blockchain, mempool, selector);
+		mempool.add(transaction);
+		if (mine) {
+			this.mineBlock(blockchain, mempool, from);
+		}
+		mempool.save();
+		System.out.println("Success!");
+	}
+
+	/**
+	 * 打包交易池中的交易挖矿
+	 *
+	 * @param address 挖矿奖励的钱包地址
+	 */
+	private void mine(String address) throws Exception {
+		Blockchain blockchain = Blockchain.initBlockchainFromDB();
+		Mempool mempool = Mempool.load(blockchain);
+		this.mineBlock(blockchain, mempool, address);
+		mempool.save();
 		System.out.println("Success!");
 	}
 
+	/**
+	 * 从交易池组装区块模板并挖矿，挖出的区块中的交易从交易池中移除
+	 * <p>
+	 * 最新区块或者交易池中的交易集合变化时，挖矿任务被取消，重新组装区块模板后继续挖矿
+	 *
+	 * @param blockchain
+	 * @param mempool
+	 * @param address    挖矿奖励的钱包地址
+	 */
+	private void mineBlock(Blockchain blockchain, Mempool mempool, String address) throws Exception {
+		Block block = null;
+		Transaction[] transactions = null;
+		while (block == null) {
+			Transaction[] template = mempool.getBlockTemplate(MAX_BLOCK_TRANSACTIONS);
+			//奖励
+			Transaction rewardTx = Transaction.newCoinbaseTransaction(address, "")
+					.withExtraNonce(blockchain.getHeight() + 1, 0);
+			transactions = Arrays.copyOf(template, template.length + 1);
+			transactions[template.length] = rewardTx;
+			try {
+				block = blockchain.mineBlock(transactions, mempool);
+			} catch (CancellationException e) {
+				System.out.println("Block template is out of date, restart mining");
+			}
+		}
+		mempool.removeForBlock(block);
+		System.out.printf("Mined block with %d transactions, mempool size: %d\n", transactions.length, mempool.size());
+	}
+
+	/**
+	 * 导出UTXO池快照
+	 *
+	 * @param file 快照文件
+	 */
+	private void dumpUTXOSet(String file) throws Exception {
+		Blockchain.initBlockchainFromDB();
+		UTXOSnapshot snapshot = UTXOSnapshot.dump(new File(file));
+		System.out.printf("Dumped %d UTXOs at height %d, block %s\n", snapshot.getCount(), snapshot.getHeight(),
+				snapshot.getBlockHash());
+	}
+
+	/**
+	 * 导入UTXO池快照，之后的区块会在初始化区块链时重放
+	 *
+	 * @param file 快照文件
+	 */
+	private void loadUTXOSet(String file) throws Exception {
+		UTXOSnapshot snapshot = UTXOSnapshot.load(new File(file));
+		if (StringUtils.isNotBlank(RocksDBUtils.getInstance().getLastBlockHash())) {
+			Blockchain.initBlockchainFromDB();
+		}
+		System.out.printf("Loaded %d UTXOs at height %d, block %s\n", snapshot.getCount(), snapshot.getHeight(),
+				snapshot.getBlockHash());
+	}
+
+	/**
+	 * 启动矿池协调者，向矿工分发区块模板
+	 *
+	 * @param address 挖矿奖励的钱包地址
+	 * @param port    监听端口
+	 */
+	private void startCoordinator(String address, int port) throws Exception {
+		Blockchain blockchain = Blockchain.initBlockchainFromDB();
+		Mempool mempool = Mempool.load(blockchain);
+		try (MiningCoordinator coordinator = new MiningCoordinator(blockchain, mempool, MAX_BLOCK_TRANSACTIONS, address, port)) {
+			coordinator.serve();
+		}
+	}
+
+	/**
+	 * 启动矿工，从协调者获取任务
+	 *
+	 * @param host 协调者地址
+	 * @param port 协调者端口
+	 */
+	private void startWorker(String host, int port) throws Exception {
+		new MiningWorker(host, port).run();
+	}
+
 	/**
 	 * 打印帮助信息
 	 */
@@ -161,7 +311,12 @@ public class CLI {
 		System.out.println("  getbalance -address ADDRESS - Get balance of ADDRESS");
 		System.out.println("  createblockchain -address ADDRESS - Create a blockchain and send genesis block reward to ADDRESS");
 		System.out.println("  printchain - Print all the blocks of the blockchain");
-		System.out.println("  send -from FROM -to TO -amount AMOUNT - Send AMOUNT of coins from FROM address to TO");
+		System.out.println("  send -from FROM -to TO -amount AMOUNT [-nomine] [-coinselection largest|bnb|smallest] - Send AMOUNT of coins from FROM address to TO");
+		System.out.println("  mine -address ADDRESS - Mine a block with mempool transactions, rewards go to ADDRESS");
+		System.out.println("  dumputxoset -file FILE - Write the UTXO set at the current tip to FILE");
+		System.out.println("  loadutxoset -file FILE - Replace the UTXO set with the snapshot in FILE");
+		System.out.println("  startcoordinator -address ADDRESS [-port PORT] - Distribute mining work to workers, rewards go to ADDRESS");
+		System.out.println("  startworker [-host HOST] [-port PORT] - Mine blocks for the coordinator at HOST:PORT");
 		System.exit(0);
 	}
 
@@ -44,6 +44,16 @@ public class Block implements Serializable {
 	 */
 	private long nonce;
 
+	/**
+	 * 是否已经冻结，冻结后的区块以及其中的交易都不允许再修改，可以在多处安全地共享
+	 */
+	private transient boolean frozen;
+
+	/**
+	 * 是否为旧的 Kryo 格式，旧格式的区块按原来的方式计算区块头和交易的hash
+	 */
+	private transient boolean legacyEncoding;
+
 	public Block() {
 
 	}
@@ -61,6 +71,7 @@ public class Block implements Serializable {
 	}
 
 	public void setHash(String hash) {
+		checkNotFrozen();
 		this.hash = hash;
 	}
 
@@ -69,14 +80,16 @@ public class Block implements Serializable {
 	}
 
 	public void setPreviousHash(String previousHash) {
+		checkNotFrozen();
 		this.previousHash = previousHash;
 	}
 
 	public Transaction[] getTransactions() {
-		return transactions;
+		return frozen ? transactions.clone() : transactions;
 	}
 
 	public void setTransactions(Transaction[] transactions) {
+		checkNotFrozen();
 		this.transactions = transactions;
 	}
 
@@ -85,6 +98,7 @@ public class Block implements Serializable {
 	}
 
 	public void setTimeStamp(long timeStamp) {
+		checkNotFrozen();
 		this.timeStamp = timeStamp;
 	}
 
@@ -93,9 +107,53 @@ public class Block implements Serializable {
 	}
 
 	public void setNonce(long nonce) {
+		checkNotFrozen();
 		this.nonce = nonce;
 	}
 
+	public boolean isLegacyEncoding() {
+		return legacyEncoding;
+	}
+
+	/**
+	 * 标记区块格式，同时标记区块中的所有交易
+	 *
+	 * @param legacyEncoding
+	 */
+	public void setLegacyEncoding(boolean legacyEncoding) {
+		checkNotFrozen();
+		this.legacyEncoding = legacyEncoding;
+		if (transactions != null) {
+			for (Transaction transaction : transactions) {
+				transaction.setLegacyEncoding(legacyEncoding);
+			}
+		}
+	}
+
+	/**
+	 * 冻结区块以及区块中的所有交易，之后调用任何setter都会抛出异常，{@link #getTransactions()} 返回数组的副本
+	 *
+	 * @return
+	 */
+	public Block freeze() {
+		if (!frozen) {
+			for (Transaction transaction : transactions) {
+				transaction.freeze();
+			}
+			this.frozen = true;
+		}
+		return this;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen) {
+			throw new IllegalStateException("Block is frozen ! blockHash=" + hash);
+		}
+	}
 
 	/**
 	 * 创建区块
@@ -137,9 +195,10 @@ public class Block implements Serializable {
 	 */
 	public byte[] hashTransaction() {
 
-		byte[][] transactionIdArrays = new byte[this.getTransactions().length][];
-		for (int i = 0; i < this.getTransactions().length; i++) {
-			transactionIdArrays[i] = this.getTransactions()[i].hash();
+		Transaction[] transactions = this.getTransactions();
+		byte[][] transactionIdArrays = new byte[transactions.length][];
+		for (int i = 0; i < transactions.length; i++) {
+			transactionIdArrays[i] = transactions[i].hash();
 		}
 		return new MerkleTree(transactionIdArrays).getRoot().getHash();
 	}
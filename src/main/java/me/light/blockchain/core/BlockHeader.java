@@ -0,0 +1,63 @@
+package me.light.blockchain.core;
+
+/**
+ * 区块头，不包含交易数据
+ *
+ * @author light.hao
+ * @create 2026-10-18-13:10
+ */
+public final class BlockHeader {
+
+	/**
+	 * 区块的hash值
+	 */
+	private final String hash;
+
+	/**
+	 * 前一个区块的hash值
+	 */
+	private final String previousHash;
+
+	/**
+	 * 区块创建的时间
+	 */
+	private final long timeStamp;
+
+	/**
+	 * 工作量证明计数器
+	 */
+	private final long nonce;
+
+	public BlockHeader(String hash, String previousHash, long timeStamp, long nonce) {
+		this.hash = hash;
+		this.previousHash = previousHash;
+		this.timeStamp = timeStamp;
+		this.nonce = nonce;
+	}
+
+	public String getHash() {
+		return hash;
+	}
+
+	public String getPreviousHash() {
+		return previousHash;
+	}
+
+	public long getTimeStamp() {
+		return timeStamp;
+	}
+
+	public long getNonce() {
+		return nonce;
+	}
+
+	/**
+	 * 从区块中提取区块头
+	 *
+	 * @param block
+	 * @return
+	 */
+	public static BlockHeader of(Block block) {
+		return new BlockHeader(block.getHash(), block.getPreviousHash(), block.getTimeStamp(), block.getNonce());
+	}
+}
@@ -0,0 +1,60 @@
+package me.light.blockchain.core;
+
+import java.math.BigInteger;
+
+/**
+ * 区块索引记录
+ *
+ * @author light.hao
+ * @create 2026-10-18-11:05
+ */
+public class BlockIndexEntry {
+
+	/**
+	 * 区块的hash值
+	 */
+	private String hash;
+
+	/**
+	 * 区块高度，创世区块为0
+	 */
+	private long height;
+
+	/**
+	 * 从创世区块到该区块累计的工作量
+	 */
+	private BigInteger chainWork;
+
+	public String getHash() {
+		return hash;
+	}
+
+	public void setHash(String hash) {
+		this.hash = hash;
+	}
+
+	public long getHeight() {
+		return height;
+	}
+
+	public void setHeight(long height) {
+		this.height = height;
+	}
+
+	public BigInteger getChainWork() {
+		return chainWork;
+	}
+
+	public void setChainWork(BigInteger chainWork) {
+		this.chainWork = chainWork;
+	}
+
+	public BlockIndexEntry() {
+	}
+
+	public BlockIndexEntry(String hash, long height, BigInteger chainWork) {
+		this.hash = hash;
+		this.height = height;
+		this.chainWork = chainWork;
+	}
+}
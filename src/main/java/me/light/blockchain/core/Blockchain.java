@@ -1,13 +1,17 @@
 package me.light.blockchain.core;
 
-import com.google.common.collect.Maps;
 import me.light.blockchain.util.RocksDBUtils;
 import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.bouncycastle.jcajce.provider.asymmetric.ec.BCECPrivateKey;
+import org.rocksdb.WriteBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * 区块链
@@ -17,8 +21,24 @@ import java.util.*;
  */
 public class Blockchain {
 
+	private final Logger logger = LoggerFactory.getLogger(Blockchain.class);
+
+	/**
+	 * 是否维护交易索引，可以通过 -Dblockchain.txindex 配置
+	 */
+	private static final boolean TX_INDEX_ENABLED = Boolean.parseBoolean(System.getProperty("blockchain.txindex", "true"));
+
+	/**
+	 * 补全区块索引和交易索引时每次批量写入的最大记录数
+	 */
+	private static final int INDEX_BATCH_SIZE = 10000;
+
 	private String lastBlockHash;
 
+	/**
+	 * 最新区块变化的监听器
+	 */
+	private final List<Consumer<String>> tipListeners = new CopyOnWriteArrayList<>();
 
 	private Blockchain(String lastBlockHash) {
 		this.lastBlockHash = lastBlockHash;
@@ -39,7 +59,11 @@ public class Blockchain {
 		if (lastBlockHash == null) {
 			throw new Exception("ERROR: Fail to init blockchain from db. ");
 		}
-		return new Blockchain(lastBlockHash);
+		Blockchain blockchain = new Blockchain(lastBlockHash);
+		blockchain.ensureBlockIndex();
+		blockchain.ensureTransactionIndex();
+		blockchain.ensureChainState();
+		return blockchain;
 	}
 
 	/**
@@ -47,17 +71,19 @@ public class Blockchain {
 	 *
 	 * @return
 	 */
-	public static Blockchain newBlockChain(String address) {
+	public static Blockchain newBlockChain(String address) throws Exception {
 		String lastBlockHash = RocksDBUtils.getInstance().getLastBlockHash();
+		Blockchain blockchain = new Blockchain(lastBlockHash);
+		blockchain.ensureBlockIndex();
+		blockchain.ensureTransactionIndex();
+		blockchain.ensureChainState();
 		if (StringUtils.isBlank(lastBlockHash)) {
 			//创建coinbase交易
 			Transaction coinbaseTransaction = Transaction.newCoinbaseTransaction(address, "");
 			Block genesisBlock = Block.newGenesisBlock(coinbaseTransaction);
-			lastBlockHash = genesisBlock.getHash();
-			RocksDBUtils.getInstance().putBlock(genesisBlock);
-			RocksDBUtils.getInstance().putLastBlockHash(lastBlockHash);
+			blockchain.addBlock(genesisBlock);
 		}
-		return new Blockchain(lastBlockHash);
+		return blockchain;
 	}
 
 	/**
@@ -74,7 +100,9 @@ public class Blockchain {
 		if (StringUtils.isBlank(lastBlockHash)) {
 			throw new Exception("Fail to add block into blockchain ! ");
 		}
-		this.addBlock(Block.newBlock(lastBlockHash, transactions));
+		if (!this.addBlock(Block.newBlock(lastBlockHash, transactions))) {
+			throw new Exception("ERROR: Fail to add block ! The latest block has changed ! ");
+		}
 	}
 
 	/**
@@ -83,31 +111,312 @@ public class Blockchain {
 	 * @param transactions
 	 */
 	public Block mineBlock(Transaction[] transactions) throws Exception {
+		return this.mineBlock(transactions, null);
+	}
+
+	/**
+	 * 打包交易，进行挖矿，交易池中的交易集合变化时取消挖矿
+	 *
+	 * @param transactions 打包的交易
+	 * @param mempool      交易池，可以为null
+	 * @return
+	 * @throws java.util.concurrent.CancellationException 最新区块或者交易集合变化导致任务被取消时抛出，调用方需要重新组装区块模板
+	 */
+	public Block mineBlock(Transaction[] transactions, Mempool mempool) throws Exception {
+		MiningJob job = this.startMiningJob(transactions, mempool);
+		Block block = job.getFuture().get();
+		System.out.printf("Hashes tried: %d, hash rate: %d/s \n", job.getHashesTried(), (long) job.getHashRate());
+		if (!this.addBlock(block)) {
+			throw new Exception("ERROR: Fail to add block ! The latest block has changed while mining ! ");
+		}
+		return block;
+	}
+
+	public MiningJob startMiningJob(Transaction[] transactions) throws Exception {
+		return this.startMiningJob(transactions, null);
+	}
+
+	/**
+	 * 基于最新区块启动挖矿任务，最新区块变化或者交易池中的交易集合变化时任务会被自动取消
+	 *
+	 * @param transactions 打包的交易
+	 * @param mempool      区块模板来自的交易池，可以为null
+	 * @return
+	 * @throws Exception
+	 */
+	public MiningJob startMiningJob(Transaction[] transactions, Mempool mempool) throws Exception {
 		//挖矿前，先验证交易记录
-		for (Transaction transaction : transactions) {
-			if (!this.verifyTransaction(transaction)) {
-				throw new Exception("ERROR: Fail to mine block ! Invalid transaction !");
-			}
+		if (!this.verifyTransactions(transactions)) {
+			throw new Exception("ERROR: Fail to mine block ! Invalid transaction !");
 		}
 
 		String lastBlockHash = RocksDBUtils.getInstance().getLastBlockHash();
-		if (lastBlockHash == null) {
+		if (StringUtils.isBlank(lastBlockHash)) {
 			throw new Exception("ERROR: Fail to get last block hash ! ");
 		}
-		Block block = Block.newBlock(lastBlockHash, transactions);
-		this.addBlock(block);
-		return block;
+		MiningJob job = MiningJob.start(lastBlockHash, this.getHeight() + 1, transactions);
+		Consumer<String> listener = job::onTipChanged;
+		tipListeners.add(listener);
+		job.getFuture().whenComplete((block, e) -> tipListeners.remove(listener));
+		if (mempool != null) {
+			Runnable mempoolListener = job::onTransactionsUpdated;
+			mempool.addListener(mempoolListener);
+			job.getFuture().whenComplete((block, e) -> mempool.removeListener(mempoolListener));
+		}
+		return job;
+	}
+
+	/**
+	 * 注册最新区块变化的监听器
+	 *
+	 * @param listener 参数为最新区块的hash值
+	 */
+	public void addTipListener(Consumer<String> listener) {
+		tipListeners.add(listener);
+	}
+
+	public void removeTipListener(Consumer<String> listener) {
+		tipListeners.remove(listener);
 	}
 
 	/**
 	 * 添加新的区块
+	 * <p>
+	 * 区块数据、最新区块hash以及UTXO缓存刷盘的变更放在同一个批量写入中原子地提交，
+	 * UTXO缓存没有刷盘时 chainstate 会落后于最新区块，重新启动时由 {@link #ensureChainState()} 重放。
+	 * 只接受以当前最新区块为前一个区块的新区块，基于旧区块挖出的区块会被拒绝。
+	 * 区块中所有交易的id都必须与交易数据一致，coinbase交易在这里检查加入额外nonce之后的最终交易id。
 	 *
 	 * @param block
+	 * @return 前一个区块不是当前最新区块时返回false，区块没有被加入
 	 */
-	public void addBlock(Block block) {
-		RocksDBUtils.getInstance().putLastBlockHash(block.getHash());
-		RocksDBUtils.getInstance().putBlock(block);
+	public synchronized boolean addBlock(Block block) {
+		if (!StringUtils.defaultString(block.getPreviousHash()).equals(StringUtils.defaultString(lastBlockHash))) {
+			logger.warn("Reject stale block ! blockHash={}, previousHash={}, lastBlockHash={}",
+					block.getHash(), block.getPreviousHash(), lastBlockHash);
+			return false;
+		}
+		for (Transaction transaction : block.getTransactions()) {
+			if (!Arrays.equals(transaction.getTransactionId(), transaction.computeTransactionId())) {
+				throw new RuntimeException("Fail to add block ! transaction id does not match transaction data ! blockHash="
+						+ block.getHash() + ", transactionId=" + Hex.encodeHexString(transaction.getTransactionId()));
+			}
+		}
+		try (WriteBatch batch = new WriteBatch()) {
+			RocksDBUtils.getInstance().putBlock(batch, block);
+			RocksDBUtils.getInstance().putLastBlockHash(batch, block.getHash());
+			RocksDBUtils.getInstance().putBlockIndexEntry(batch, this.newBlockIndexEntry(block));
+			if (TX_INDEX_ENABLED) {
+				this.indexTransactions(batch, block);
+			} else {
+				RocksDBUtils.getInstance().putTransactionIndexComplete(batch, false);
+			}
+			boolean coinsFlushed = new UTXOSet(this).update(block, batch);
+			try {
+				RocksDBUtils.getInstance().writeBatch(batch);
+			} catch (RuntimeException e) {
+				// 缓存中已经包含了这个区块的修改，丢弃缓存并从DB中的 chainstate 重放到当前最新区块
+				CoinsCache.getInstance().clear();
+				try {
+					this.ensureChainState();
+				} catch (Exception replayException) {
+					e.addSuppressed(replayException);
+				}
+				throw e;
+			}
+			if (coinsFlushed) {
+				CoinsCache.getInstance().clear();
+			}
+		}
 		this.lastBlockHash = block.getHash();
+		for (Consumer<String> listener : tipListeners) {
+			listener.accept(block.getHash());
+		}
+		return true;
+	}
+
+	/**
+	 * 根据前一个区块的索引记录生成新区块的索引记录
+	 *
+	 * @param block
+	 * @return
+	 */
+	private BlockIndexEntry newBlockIndexEntry(Block block) {
+		BigInteger work = ProofOfWork.newProofOfWork(block).getWork();
+		if (StringUtils.isBlank(block.getPreviousHash())) {
+			return new BlockIndexEntry(block.getHash(), 0, work);
+		}
+		BlockIndexEntry prevEntry = RocksDBUtils.getInstance().getBlockIndexEntry(block.getPreviousHash());
+		if (prevEntry == null) {
+			throw new RuntimeException("Fail to index block ! previous block is not indexed ! blockHash=" + block.getHash());
+		}
+		return new BlockIndexEntry(block.getHash(), prevEntry.getHeight() + 1, prevEntry.getChainWork().add(work));
+	}
+
+	/**
+	 * 旧数据没有区块索引时，遍历一次区块链补全高度索引
+	 * <p>
+	 * 先沿着区块头从最新区块走到创世区块，只收集区块hash，再从创世区块开始逐个计算索引记录并分批写入
+	 */
+	private void ensureBlockIndex() throws Exception {
+		if (StringUtils.isBlank(lastBlockHash) || RocksDBUtils.getInstance().getBlockIndexEntry(lastBlockHash) != null) {
+			return;
+		}
+		logger.info("start to build block index");
+		List<String> blockHashes = new ArrayList<>();
+		for (String blockHash = lastBlockHash; StringUtils.isNotBlank(blockHash); ) {
+			BlockHeader header = RocksDBUtils.getInstance().getBlockHeader(blockHash);
+			if (header == null) {
+				throw new RuntimeException("Fail to build block index ! block is missing ! blockHash=" + blockHash);
+			}
+			blockHashes.add(blockHash);
+			blockHash = header.getPreviousHash();
+		}
+		try (WriteBatch batch = new WriteBatch()) {
+			BlockIndexEntry entry = null;
+			for (int i = blockHashes.size() - 1; i >= 0; i--) {
+				Block block = RocksDBUtils.getInstance().getBlockWithoutCache(blockHashes.get(i));
+				BigInteger work = ProofOfWork.newProofOfWork(block).getWork();
+				entry = entry == null
+						? new BlockIndexEntry(block.getHash(), 0, work)
+						: new BlockIndexEntry(block.getHash(), entry.getHeight() + 1, entry.getChainWork().add(work));
+				RocksDBUtils.getInstance().putBlockIndexEntry(batch, entry);
+				if (batch.count() >= INDEX_BATCH_SIZE) {
+					RocksDBUtils.getInstance().writeBatch(batch);
+					batch.clear();
+				}
+			}
+			RocksDBUtils.getInstance().writeBatch(batch);
+		}
+		logger.info("Build block index finished ! blocks={}", blockHashes.size());
+	}
+
+	/**
+	 * 保证 chainstate 与最新区块一致
+	 * <p>
+	 * 1.旧格式的 chainstate 需要重建；
+	 * 2.UTXO缓存没有刷盘时进程退出，chainstate 会落后于最新区块，从 chainstate 对应的区块开始重放到最新区块。
+	 */
+	private void ensureChainState() throws Exception {
+		if (StringUtils.isBlank(lastBlockHash)) {
+			return;
+		}
+		if (!RocksDBUtils.getInstance().isChainStateUpToDate()) {
+			logger.info("chainstate format is outdated, rebuild UTXO set");
+			new UTXOSet(this).reIndex();
+			return;
+		}
+		String chainStateTip = RocksDBUtils.getInstance().getChainStateTip();
+		if (chainStateTip == null) {
+			throw new RuntimeException("Fail to replay chainstate ! chainstate tip is missing ! ");
+		}
+		if (chainStateTip.equals(lastBlockHash)) {
+			return;
+		}
+		BlockIndexEntry chainStateEntry = RocksDBUtils.getInstance().getBlockIndexEntry(chainStateTip);
+		if (chainStateEntry == null) {
+			throw new RuntimeException("Fail to replay chainstate ! chainstate tip is not indexed ! blockHash=" + chainStateTip);
+		}
+		long height = this.getHeight();
+		logger.info("start to replay blocks into chainstate, fromHeight={}, toHeight={}", chainStateEntry.getHeight() + 1, height);
+		UTXOSet utxoSet = new UTXOSet(this);
+		for (long h = chainStateEntry.getHeight() + 1; h <= height; h++) {
+			utxoSet.update(this.getBlockByHeight(h));
+		}
+		CoinsCache.getInstance().flush();
+		logger.info("Replay chainstate finished ! ");
+	}
+
+	/**
+	 * 查询最新区块的高度
+	 *
+	 * @return 区块链为空时返回-1
+	 */
+	public long getHeight() {
+		if (StringUtils.isBlank(lastBlockHash)) {
+			return -1;
+		}
+		BlockIndexEntry entry = RocksDBUtils.getInstance().getBlockIndexEntry(lastBlockHash);
+		return entry == null ? -1 : entry.getHeight();
+	}
+
+	/**
+	 * 根据高度查询区块
+	 *
+	 * @param height 区块高度，创世区块为0
+	 * @return 高度超出范围时返回null
+	 */
+	public Block getBlockByHeight(long height) {
+		String blockHash = RocksDBUtils.getInstance().getBlockHashByHeight(height);
+		return blockHash == null ? null : RocksDBUtils.getInstance().getBlock(blockHash);
+	}
+
+	/**
+	 * 按高度顺序查询一段区块
+	 *
+	 * @param fromHeight 起始高度（包含）
+	 * @param toHeight   结束高度（包含）
+	 * @return
+	 */
+	public List<Block> getBlocksByHeight(long fromHeight, long toHeight) {
+		List<Block> blocks = new ArrayList<>();
+		for (String blockHash : RocksDBUtils.getInstance().getBlockHashesByHeight(fromHeight, toHeight)) {
+			blocks.add(RocksDBUtils.getInstance().getBlock(blockHash));
+		}
+		return blocks;
+	}
+
+	/**
+	 * 查询最近的若干个区块，按高度从低到高排列
+	 *
+	 * @param count 区块个数
+	 * @return
+	 */
+	public List<Block> getLatestBlocks(int count) {
+		long height = this.getHeight();
+		return this.getBlocksByHeight(Math.max(0, height - count + 1), height);
+	}
+
+	/**
+	 * 将区块中每一笔交易的位置加入到批量写入中
+	 *
+	 * @param batch
+	 * @param block
+	 */
+	private void indexTransactions(WriteBatch batch, Block block) {
+		Transaction[] transactions = block.getTransactions();
+		for (int position = 0; position < transactions.length; position++) {
+			RocksDBUtils.getInstance().putTransactionLocation(batch, transactions[position].getTransactionId(),
+					new TransactionLocation(block.getHash(), position));
+		}
+	}
+
+	/**
+	 * 交易索引没有覆盖整条链时（旧数据或者曾经关闭过交易索引），遍历一次区块链补全索引
+	 */
+	private void ensureTransactionIndex() throws Exception {
+		if (!TX_INDEX_ENABLED || RocksDBUtils.getInstance().isTransactionIndexComplete()) {
+			return;
+		}
+		logger.info("start to build transaction index");
+		try (WriteBatch batch = new WriteBatch()) {
+			// 每个区块只读取一次，不经过区块缓存，避免把整条链的区块都加载到缓存中
+			for (String blockHash = lastBlockHash; StringUtils.isNotBlank(blockHash); ) {
+				Block block = RocksDBUtils.getInstance().getBlockWithoutCache(blockHash);
+				if (block == null) {
+					throw new RuntimeException("Fail to build transaction index ! block is missing ! blockHash=" + blockHash);
+				}
+				this.indexTransactions(batch, block);
+				blockHash = block.getPreviousHash();
+				if (batch.count() >= INDEX_BATCH_SIZE) {
+					RocksDBUtils.getInstance().writeBatch(batch);
+					batch.clear();
+				}
+			}
+			RocksDBUtils.getInstance().putTransactionIndexComplete(batch, true);
+			RocksDBUtils.getInstance().writeBatch(batch);
+		}
+		logger.info("Build transaction index finished ! ");
 	}
 
 	/**
@@ -130,7 +439,7 @@ public class Blockchain {
 			if (StringUtils.isBlank(currentBlockHash)) {
 				return false;
 			}
-			Block lastBlock = RocksDBUtils.getInstance().getBlock(currentBlockHash);
+			BlockHeader lastBlock = RocksDBUtils.getInstance().getBlockHeader(currentBlockHash);
 			if (lastBlock == null) {
 				return false;
 			}
@@ -138,7 +447,7 @@ public class Blockchain {
 			if (lastBlock.getPreviousHash().length() == 0) {
 				return true;
 			}
-			return RocksDBUtils.getInstance().getBlock(lastBlock.getPreviousHash()) != null;
+			return RocksDBUtils.getInstance().getBlockHeader(lastBlock.getPreviousHash()) != null;
 		}
 
 
@@ -161,138 +470,40 @@ public class Blockchain {
 		return new BlockchainIterator(lastBlockHash);
 	}
 
-
 	/**
-	 * 从交易输入中查询区块链中所有已被花费了的交易输出
-	 *
-	 * @param publicKeyHash 钱包公钥hash
-	 * @return 交易ID以及对应的交易输出下标地址
-	 * @throws Exception
-	 */
-	private Map<String, int[]> getAllSpentTransactionInputs(byte[] publicKeyHash) throws Exception {
-		Map<String, int[]> spentTransactionInputs = new HashMap<>();
-		for (BlockchainIterator blockchainIterator = this.getBlockchainIterator(); blockchainIterator.hashNext(); ) {
-			Block block = blockchainIterator.next();
-			for (Transaction transaction : block.getTransactions()) {
-				if (transaction.isCoinBase()) {
-					continue;
-				}
-
-				for (TransactionInput input : transaction.getInputs()) {
-					if (input.usesKey(publicKeyHash)) {
-						String inTransactionId = Hex.encodeHexString(input.getTransactionId());
-						int[] spentOutIndexArray = spentTransactionInputs.get(inTransactionId);
-						if (spentOutIndexArray == null) {
-							spentTransactionInputs.put(inTransactionId, new int[]{input.getTransactionOutputIndex()});
-						} else {
-							spentOutIndexArray = ArrayUtils.add(spentOutIndexArray, input.getTransactionOutputIndex());
-							spentTransactionInputs.put(inTransactionId, spentOutIndexArray);
-						}
-					}
-				}
-			}
-		}
-		return spentTransactionInputs;
-	}
-
-
-	/**
-	 * 查找钱包地址对应的所有未花费的交易
+	 * 根据交易id查询交易信息
+	 * <p>
+	 * 开启交易索引时只需要读取交易所在的区块，否则需要从最新区块往前遍历
 	 *
-	 * @param publicKeyHash
-	 * @return
-	 * @throws Exception
+	 * @param transactionId
+	 * @return 找不到时返回null
 	 */
-	private Transaction[] findUnspentTransactions(byte[] publicKeyHash) throws Exception {
-
-		Map<String, int[]> allSpentTransactionInputs = this.getAllSpentTransactionInputs(publicKeyHash);
-		Transaction[] unspentTransactions = {};
-
-		//再次遍历所有区块中的交易输出
-		for (BlockchainIterator blockchainIterator = this.getBlockchainIterator(); blockchainIterator.hashNext(); ) {
-			Block block = blockchainIterator.next();
-			for (Transaction transaction : block.getTransactions()) {
-				String transactionId = Hex.encodeHexString(transaction.getTransactionId());
-
-				int[] spentOutIndexArray = allSpentTransactionInputs.get(transactionId);
-				for (int outIndex = 0; outIndex < transaction.getOutputs().length; outIndex++) {
-					if (spentOutIndexArray != null && ArrayUtils.contains(spentOutIndexArray, outIndex)) {
-						continue;
-					}
-
-					if (transaction.getOutputs()[outIndex].isLockedWithKey(publicKeyHash)) {
-						unspentTransactions = ArrayUtils.add(unspentTransactions, transaction);
-					}
-
-				}
+	public Transaction getTransaction(byte[] transactionId) throws Exception {
+		if (TX_INDEX_ENABLED) {
+			TransactionLocation location = RocksDBUtils.getInstance().getTransactionLocation(transactionId);
+			if (location == null) {
+				return null;
 			}
-		}
-		return unspentTransactions;
-	}
-
-
-	/**
-	 * 查找钱包地址对应的所有UTXO
-	 *
-	 * @param publicKeyHash
-	 * @return
-	 * @throws Exception
-	 */
-	public TransactionOutput[] findUTXO(byte[] publicKeyHash) throws Exception {
-		Transaction[] unspentTransactions = this.findUnspentTransactions(publicKeyHash);
-
-		TransactionOutput[] utxos = {};
-
-		if (unspentTransactions == null || unspentTransactions.length == 0) {
-			return utxos;
-		}
-
-		for (Transaction transaction : unspentTransactions) {
-			for (TransactionOutput output : transaction.getOutputs()) {
-				if (output.isLockedWithKey(publicKeyHash)) {
-					utxos = ArrayUtils.add(utxos, output);
+			Block block = RocksDBUtils.getInstance().getBlock(location.getBlockHash());
+			if (block != null && location.getPosition() < block.getTransactions().length) {
+				Transaction transaction = block.getTransactions()[location.getPosition()];
+				if (Arrays.equals(transaction.getTransactionId(), transactionId)) {
+					return transaction;
 				}
 			}
+			throw new Exception("ERROR: Transaction index is corrupted ! ");
 		}
-		return utxos;
-	}
-
-	/**
-	 * 查找能够花费的交易输出
-	 *
-	 * @param publicKeyHash 钱包地址hash
-	 * @param amount        支付金额
-	 * @return
-	 */
-	public SpendableOutputResult findSpendableOutputs(byte[] publicKeyHash, int amount) throws Exception {
-		Transaction[] unspentTransactions = this.findUnspentTransactions(publicKeyHash);
-		int accumulated = 0;
-
-		Map<String, int[]> unspentOutputs = new HashMap<>();
-		for (Transaction transaction : unspentTransactions) {
-			String transactionId = Hex.encodeHexString(transaction.getTransactionId());
-			for (int outputIndex = 0; outputIndex < transaction.getOutputs().length; outputIndex++) {
-				TransactionOutput output = transaction.getOutputs()[outputIndex];
-				if (output.isLockedWithKey(publicKeyHash) && accumulated < amount) {
-					accumulated += output.getValue();
-				}
-
-				int[] outIndexs = unspentOutputs.get(transactionId);
-				if (outIndexs == null) {
-					outIndexs = new int[]{outputIndex};
-				} else {
-					outIndexs = ArrayUtils.add(outIndexs, outputIndex);
-				}
-				unspentOutputs.put(transactionId, outIndexs);
-				if (accumulated >= amount) {
-					break;
+		for (BlockchainIterator iterator = this.getBlockchainIterator(); iterator.hashNext(); ) {
+			Block block = iterator.next();
+			for (Transaction transaction : block.getTransactions()) {
+				if (Arrays.equals(transaction.getTransactionId(), transactionId)) {
+					return transaction;
 				}
 			}
 		}
-		return new SpendableOutputResult(accumulated, unspentOutputs);
+		return null;
 	}
 
-
 	/**
 	 * 根据交易id查询交易信息
 	 *
@@ -300,15 +511,11 @@ public class Blockchain {
 	 * @return
 	 */
 	private Transaction findTransaction(byte[] transactionId) throws Exception {
-		for (BlockchainIterator iterator = this.getBlockchainIterator(); iterator.hashNext(); ) {
-			Block block = iterator.next();
-			for (Transaction transaction : block.getTransactions()) {
-				if (Arrays.equals(transaction.getTransactionId(), transactionId)) {
-					return transaction;
-				}
-			}
+		Transaction transaction = this.getTransaction(transactionId);
+		if (transaction == null) {
+			throw new Exception("ERROR: Can not found tx by txId ! ");
 		}
-		throw new Exception("ERROR: Can not found tx by txId ! ");
+		return transaction;
 	}
 
 
@@ -320,98 +527,54 @@ public class Blockchain {
 	 * @throws Exception
 	 */
 	public void signTransaction(Transaction transaction, BCECPrivateKey privateKey) throws Exception {
-		//先找到这笔新的交易中，交易输入所引用的前面的多笔交易的数据
-		Map<String, Transaction> prevTransactions = new HashMap<>();
-		for (TransactionInput input : transaction.getInputs()) {
-			Transaction prevTransaction = this.findTransaction(input.getTransactionId());
-			prevTransactions.put(Hex.encodeHexString(input.getTransactionId()), prevTransaction);
-		}
-		transaction.sign(privateKey, prevTransactions);
+		this.signTransaction(transaction, privateKey, null);
 	}
 
 	/**
-	 * 验证交易
+	 * 进行交易签名，交易输入引用的交易可以是交易池中未确认的交易
 	 *
 	 * @param transaction 交易数据
-	 * @return
+	 * @param privateKey  私钥
+	 * @param mempool     交易池，可以为null
 	 * @throws Exception
 	 */
-	public boolean verifyTransaction(Transaction transaction) throws Exception {
-		if (transaction.isCoinBase()) {
-			return true;
-		}
-		Map<String, Transaction> prevTransaction = new HashMap<>();
-		for (TransactionInput txInput : transaction.getInputs()) {
-			Transaction tempTransaction = this.findTransaction(txInput.getTransactionId());
-			prevTransaction.put(Hex.encodeHexString(txInput.getTransactionId()), transaction);
+	public void signTransaction(Transaction transaction, BCECPrivateKey privateKey, Mempool mempool) throws Exception {
+		//先找到这笔新的交易中，交易输入所引用的前面的多笔交易的数据
+		Map<String, Transaction> prevTransactions = new HashMap<>();
+		for (TransactionInput input : transaction.getInputs()) {
+			String prevTransactionId = Hex.encodeHexString(input.getTransactionId());
+			Transaction prevTransaction = mempool == null ? null : mempool.getTransaction(prevTransactionId);
+			if (prevTransaction == null) {
+				prevTransaction = this.findTransaction(input.getTransactionId());
+			}
+			prevTransactions.put(prevTransactionId, prevTransaction);
 		}
-		return transaction.verify(prevTransaction);
+		transaction.sign(privateKey, prevTransactions);
 	}
 
 	/**
-	 * 查找所有的未交易输出
+	 * 验证交易
 	 *
+	 * @param transaction 交易数据
 	 * @return
 	 */
-	public Map<String, TransactionOutput[]> findAllUTXOs() throws Exception {
-		Map<String, int[]> spentTXOs = this.findAllSpentTxOutputs();
-		Map<String, TransactionOutput[]> allUTXOs = Maps.newHashMap();
-
-		for (BlockchainIterator iterator = this.getBlockchainIterator(); iterator.hashNext(); ) {
-			Block block = iterator.next();
-
-			for (Transaction transaction : block.getTransactions()) {
-				String transactionId = Hex.encodeHexString(transaction.getTransactionId());
-				int[] spentOutIndexArray = spentTXOs.get(transactionId);
-
-				TransactionOutput[] outputs = transaction.getOutputs();
-				for (int index = 0; index < outputs.length; index++) {
-					if (spentOutIndexArray != null && ArrayUtils.contains(spentOutIndexArray, index)) {
-						continue;
-					}
-
-					TransactionOutput[] UTXOArray = allUTXOs.get(transactionId);
-					if (UTXOArray == null) {
-						UTXOArray = new TransactionOutput[]{outputs[index]};
-					} else {
-						UTXOArray = ArrayUtils.add(UTXOArray, outputs[index]);
-					}
-					allUTXOs.put(transactionId, UTXOArray);
-				}
-			}
-		}
-		return allUTXOs;
+	public boolean verifyTransaction(Transaction transaction) {
+		return this.verifyTransactions(new Transaction[]{transaction});
 	}
 
 	/**
-	 * 查询所有交易输出
+	 * 基于UTXO池按顺序验证一批交易，详见 {@link TransactionValidator}
 	 *
-	 * @return
-	 * @throws Exception
+	 * @param transactions 交易数据
+	 * @return 任意一笔交易无效时返回false
 	 */
-	private Map<String, int[]> findAllSpentTxOutputs() throws Exception {
-		Map<String, int[]> result = Maps.newHashMap();
-		for (BlockchainIterator iterator = this.getBlockchainIterator(); iterator.hashNext(); ) {
-			Block block = iterator.next();
-
-			for (Transaction transaction : block.getTransactions()) {
-				//coinbase交易直接跳过
-				if (transaction.isCoinBase()) {
-					continue;
-				}
-
-				for (TransactionInput input : transaction.getInputs()) {
-					String inputTxId = Hex.encodeHexString(input.getTransactionId());
-					int[] spentOutIndexArray = result.get(inputTxId);
-					if (spentOutIndexArray == null) {
-						spentOutIndexArray = new int[input.getTransactionOutputIndex()];
-					} else {
-						spentOutIndexArray = ArrayUtils.add(spentOutIndexArray, input.getTransactionOutputIndex());
-					}
-					result.put(inputTxId, spentOutIndexArray);
-				}
-			}
+	public boolean verifyTransactions(Transaction[] transactions) {
+		try {
+			new TransactionValidator(new UTXOSet(this)).validate(transactions);
+			return true;
+		} catch (Exception e) {
+			logger.warn("Invalid transactions ! reason={}", e.getMessage());
+			return false;
 		}
-		return result;
 	}
 }
@@ -0,0 +1,337 @@
+package me.light.blockchain.core;
+
+import me.light.blockchain.util.BinaryReader;
+import me.light.blockchain.util.BinaryWriter;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * 交易和区块的规范二进制编码，用于计算hash、存储以及以后的网络传输
+ * <p>
+ * 交易：版本号(varint)，输入个数(varint)，每个输入为 前一笔交易id(32字节) + 输出下标(int32) + 签名(varbytes) + 公钥(varbytes)，
+ * 输出个数(varint)，每个输出为 金额(int64) + 公钥hash(varbytes)。存储时在最前面加上32字节的交易id。
+ * <p>
+ * 区块头：版本号(int32) + 前一个区块hash(32字节) + 默克尔树根(32字节) + 时间戳(int64) + 难度目标位(int32) + nonce(int64)，
+ * nonce 位于最后，挖矿时只需要改写最后8个字节。
+ * <p>
+ * 区块存储：魔数(1字节) + 版本号(1字节) + 区块hash(32字节) + 前一个区块hash(32字节) + 时间戳(int64) + nonce(int64)
+ * + 交易个数(varint) + 交易。魔数用来与旧的 Kryo 格式区分。
+ * <p>
+ * 所有整数都是小端序，创世区块的前一个区块hash以及coinbase交易输入引用的交易id都编码为32个0。
+ *
+ * @author light.hao
+ * @create 2026-10-18-14:40
+ */
+public class CanonicalCodec {
+
+	/**
+	 * 编码版本号
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * hash值的字节长度
+	 */
+	public static final int HASH_LENGTH = 32;
+
+	/**
+	 * 区块头的字节长度
+	 */
+	public static final int HEADER_LENGTH = Integer.BYTES + HASH_LENGTH + HASH_LENGTH + Long.BYTES + Integer.BYTES + Long.BYTES;
+
+	/**
+	 * nonce 在区块头中的偏移量
+	 */
+	public static final int NONCE_OFFSET = HEADER_LENGTH - Long.BYTES;
+
+	/**
+	 * 区块存储格式的魔数，Kryo 格式的第一个字节是较小的类注册id，不会出现这个值
+	 */
+	private static final int BLOCK_MAGIC = 0xFE;
+
+	private static final byte[] ZERO_HASH = new byte[HASH_LENGTH];
+
+	private static final ThreadLocal<BinaryWriter> HASH_WRITER = ThreadLocal.withInitial(BinaryWriter::new);
+
+	private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(DigestUtils::getSha256Digest);
+
+	/**
+	 * 计算交易hash，即不包含交易id的规范编码的 SHA-256，不会复制交易对象
+	 *
+	 * @param transaction
+	 * @return
+	 */
+	public static byte[] hashTransaction(Transaction transaction) {
+		BinaryWriter writer = HASH_WRITER.get();
+		writer.reset();
+		writeTransaction(writer, transaction, false);
+		MessageDigest digest = SHA256.get();
+		writer.writeTo(digest);
+		return digest.digest();
+	}
+
+	/**
+	 * 计算交易id，即所有交易输入的签名都按空值编码时的交易hash，交易id在签名之前确定
+	 *
+	 * @param transaction
+	 * @return
+	 */
+	public static byte[] hashTransactionId(Transaction transaction) {
+		BinaryWriter writer = HASH_WRITER.get();
+		writer.reset();
+		writeTransaction(writer, transaction, false, false);
+		MessageDigest digest = SHA256.get();
+		writer.writeTo(digest);
+		return digest.digest();
+	}
+
+	/**
+	 * 写入交易
+	 *
+	 * @param writer
+	 * @param transaction
+	 * @param withId      是否写入交易id，计算hash时不写入
+	 */
+	public static void writeTransaction(BinaryWriter writer, Transaction transaction, boolean withId) {
+		writeTransaction(writer, transaction, withId, true);
+	}
+
+	/**
+	 * 写入交易
+	 *
+	 * @param writer
+	 * @param transaction
+	 * @param withId         是否写入交易id
+	 * @param withSignatures 是否写入签名，计算交易id时签名按空值写入
+	 */
+	private static void writeTransaction(BinaryWriter writer, Transaction transaction, boolean withId,
+										 boolean withSignatures) {
+		if (withId) {
+			writer.writeBytes(toHash(transaction.getTransactionId()));
+		}
+		TransactionInput[] inputs = transaction.getInputs();
+		writer.writeVarInt(VERSION);
+		writer.writeVarInt(inputs.length);
+		for (TransactionInput input : inputs) {
+			writer.writeBytes(toHash(input.getTransactionId()));
+			writer.writeInt32(input.getTransactionOutputIndex());
+			writer.writeVarBytes(withSignatures ? input.getSignature() : null);
+			writer.writeVarBytes(input.getPublicKey());
+		}
+		TransactionOutput[] outputs = transaction.getOutputs();
+		writer.writeVarInt(outputs.length);
+		for (TransactionOutput output : outputs) {
+			writer.writeInt64(output.getValue());
+			writer.writeVarBytes(output.getPublicKeyHash());
+		}
+	}
+
+	/**
+	 * 读取包含交易id的交易
+	 *
+	 * @param reader
+	 * @return
+	 */
+	public static Transaction readTransaction(BinaryReader reader) {
+		byte[] transactionId = reader.readBytes(HASH_LENGTH);
+		long version = reader.readVarInt();
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported transaction version ! version=" + version);
+		}
+
+		TransactionInput[] inputs = new TransactionInput[reader.readCount()];
+		for (int i = 0; i < inputs.length; i++) {
+			byte[] prevTransactionId = reader.readBytes(HASH_LENGTH);
+			int outputIndex = reader.readInt32();
+			if (Arrays.equals(prevTransactionId, ZERO_HASH)) {
+				prevTransactionId = new byte[]{};
+			}
+			inputs[i] = new TransactionInput(prevTransactionId, outputIndex, reader.readVarBytes(), reader.readVarBytes());
+		}
+
+		TransactionOutput[] outputs = new TransactionOutput[reader.readCount()];
+		for (int i = 0; i < outputs.length; i++) {
+			long value = reader.readInt64();
+			if (value < 0 || value > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Invalid output value ! value=" + value);
+			}
+			outputs[i] = new TransactionOutput((int) value, reader.readVarBytes());
+		}
+		return new Transaction(transactionId, inputs, outputs);
+	}
+
+	/**
+	 * 编码包含交易id的交易
+	 *
+	 * @param transaction
+	 * @return
+	 */
+	public static byte[] encodeTransaction(Transaction transaction) {
+		BinaryWriter writer = new BinaryWriter();
+		writeTransaction(writer, transaction, true);
+		return writer.toByteArray();
+	}
+
+	/**
+	 * 解码包含交易id的交易
+	 *
+	 * @param bytes
+	 * @return
+	 */
+	public static Transaction decodeTransaction(byte[] bytes) {
+		return readTransaction(new BinaryReader(bytes));
+	}
+
+	/**
+	 * 写入区块头
+	 *
+	 * @param writer
+	 * @param previousHash 前一个区块hash，创世区块为空
+	 * @param merkleRoot   交易的默克尔树根
+	 * @param timeStamp    时间戳
+	 * @param targetBits   难度目标位
+	 * @param nonce        工作量证明计数器
+	 */
+	public static void writeHeader(BinaryWriter writer, String previousHash, byte[] merkleRoot,
+								   long timeStamp, int targetBits, long nonce) {
+		writer.writeInt32(VERSION);
+		writer.writeBytes(toHash(previousHash));
+		writer.writeBytes(toHash(merkleRoot));
+		writer.writeInt64(timeStamp);
+		writer.writeInt32(targetBits);
+		writer.writeInt64(nonce);
+	}
+
+	/**
+	 * 以小端序将 nonce 写入区块头的最后8个字节，挖矿时只需要改写这一部分
+	 *
+	 * @param header 区块头
+	 * @param nonce
+	 */
+	public static void writeNonce(byte[] header, long nonce) {
+		for (int i = 0; i < Long.BYTES; i++) {
+			header[NONCE_OFFSET + i] = (byte) (nonce >>> (8 * i));
+		}
+	}
+
+	/**
+	 * 是否为规范编码的区块
+	 *
+	 * @param bytes 存储的区块数据
+	 * @return
+	 */
+	public static boolean isCanonicalBlock(byte[] bytes) {
+		return bytes.length > 0 && (bytes[0] & 0xFF) == BLOCK_MAGIC;
+	}
+
+	/**
+	 * 是否为规范编码的区块，不改变缓冲区的读取位置
+	 *
+	 * @param buffer 存储的区块数据
+	 * @return
+	 */
+	public static boolean isCanonicalBlock(ByteBuffer buffer) {
+		return buffer.hasRemaining() && (buffer.get(buffer.position()) & 0xFF) == BLOCK_MAGIC;
+	}
+
+	/**
+	 * 编码区块
+	 *
+	 * @param block
+	 * @return
+	 */
+	public static byte[] encodeBlock(Block block) {
+		BinaryWriter writer = new BinaryWriter(1024);
+		writer.writeByte(BLOCK_MAGIC);
+		writer.writeByte(VERSION);
+		writer.writeBytes(toHash(block.getHash()));
+		writer.writeBytes(toHash(block.getPreviousHash()));
+		writer.writeInt64(block.getTimeStamp());
+		writer.writeInt64(block.getNonce());
+		writer.writeVarInt(block.getTransactions().length);
+		for (Transaction transaction : block.getTransactions()) {
+			writeTransaction(writer, transaction, true);
+		}
+		return writer.toByteArray();
+	}
+
+	/**
+	 * 解码区块
+	 *
+	 * @param bytes
+	 * @return
+	 */
+	public static Block decodeBlock(byte[] bytes) {
+		return decodeBlock(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * 解码区块，可以直接读取内存映射文件中的数据
+	 *
+	 * @param buffer
+	 * @return
+	 */
+	public static Block decodeBlock(ByteBuffer buffer) {
+		BinaryReader reader = new BinaryReader(buffer);
+		if (reader.readByte() != BLOCK_MAGIC) {
+			throw new IllegalArgumentException("Not a canonical block ! ");
+		}
+		int version = reader.readByte();
+		if (version != VERSION) {
+			throw new IllegalArgumentException("Unsupported block version ! version=" + version);
+		}
+		String hash = Hex.encodeHexString(reader.readBytes(HASH_LENGTH));
+		byte[] previousHash = reader.readBytes(HASH_LENGTH);
+		long timeStamp = reader.readInt64();
+		long nonce = reader.readInt64();
+		Transaction[] transactions = new Transaction[reader.readCount()];
+		for (int i = 0; i < transactions.length; i++) {
+			transactions[i] = readTransaction(reader);
+		}
+
+		Block block = new Block(hash,
+				Arrays.equals(previousHash, ZERO_HASH) ? "" : Hex.encodeHexString(previousHash),
+				transactions, timeStamp);
+		block.setNonce(nonce);
+		return block;
+	}
+
+	/**
+	 * 十六进制的hash值转化为32字节，空值转化为32个0
+	 *
+	 * @param hexHash
+	 * @return
+	 */
+	private static byte[] toHash(String hexHash) {
+		if (StringUtils.isBlank(hexHash)) {
+			return ZERO_HASH;
+		}
+		try {
+			return toHash(Hex.decodeHex(hexHash.toCharArray()));
+		} catch (DecoderException e) {
+			throw new IllegalArgumentException("Invalid hash ! hash=" + hexHash, e);
+		}
+	}
+
+	/**
+	 * 校验hash值的长度，空值转化为32个0
+	 *
+	 * @param hash
+	 * @return
+	 */
+	private static byte[] toHash(byte[] hash) {
+		if (hash == null || hash.length == 0) {
+			return ZERO_HASH;
+		}
+		if (hash.length != HASH_LENGTH) {
+			throw new IllegalArgumentException("Invalid hash length ! length=" + hash.length);
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,169 @@
+package me.light.blockchain.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 选择交易输入的策略
+ * <p>
+ * 输入为同一个地址按金额从小到大排列的未花费交易输出(地址索引的顺序)。策略找不到合适的组合时退回到 {@link #LARGEST_FIRST}，
+ * 余额不足时返回空列表。
+ *
+ * @author light.hao
+ * @create 2026-10-19-00:10
+ */
+public enum CoinSelector {
+
+	/**
+	 * 从金额最大的交易输出开始累加，交易输入个数最少
+	 */
+	LARGEST_FIRST("largest") {
+		@Override
+		protected List<UnspentOutput> doSelect(List<UnspentOutput> utxos, long target) {
+			List<UnspentOutput> selected = new ArrayList<>();
+			long total = 0;
+			for (int i = utxos.size() - 1; i >= 0 && total < target; i--) {
+				selected.add(utxos.get(i));
+				total += utxos.get(i).getOutput().getValue();
+			}
+			return total >= target ? selected : null;
+		}
+	},
+
+	/**
+	 * 分支定界搜索金额之和恰好等于目标金额的组合，交易不需要找零输出
+	 * <p>
+	 * 按金额从大到小做深度优先搜索，当前金额超过目标金额或者剩余的交易输出加起来也不够时回溯；
+	 * 前一个相同金额的交易输出没有被选中时跳过当前的交易输出，避免重复搜索等价的组合。
+	 */
+	BRANCH_AND_BOUND("bnb") {
+		@Override
+		protected List<UnspentOutput> doSelect(List<UnspentOutput> utxos, long target) {
+			int n = utxos.size();
+			long[] values = new long[n];
+			long available = 0;
+			for (int i = 0; i < n; i++) {
+				values[i] = utxos.get(n - 1 - i).getOutput().getValue();
+				available += values[i];
+			}
+
+			boolean[] selection = new boolean[n];
+			int depth = 0;
+			long current = 0;
+			for (int tries = 0; tries < BNB_MAX_TRIES; tries++) {
+				if (current == target) {
+					List<UnspentOutput> selected = new ArrayList<>();
+					for (int i = 0; i < depth; i++) {
+						if (selection[i]) {
+							selected.add(utxos.get(n - 1 - i));
+						}
+					}
+					return selected;
+				}
+				if (current > target || current + available < target) {
+					// 回溯到最近一个被选中的交易输出，改为不选中
+					while (depth > 0 && !selection[depth - 1]) {
+						depth--;
+						available += values[depth];
+					}
+					if (depth == 0) {
+						return null;
+					}
+					selection[depth - 1] = false;
+					current -= values[depth - 1];
+				} else {
+					available -= values[depth];
+					if (depth > 0 && !selection[depth - 1] && values[depth] == values[depth - 1]) {
+						selection[depth] = false;
+					} else {
+						selection[depth] = true;
+						current += values[depth];
+					}
+					depth++;
+				}
+			}
+			return null;
+		}
+	},
+
+	/**
+	 * 能够覆盖目标金额的最小的单个交易输出，大额的交易输出不会被拆散
+	 */
+	SMALLEST_SUFFICIENT("smallest") {
+		@Override
+		protected List<UnspentOutput> doSelect(List<UnspentOutput> utxos, long target) {
+			int low = 0;
+			int high = utxos.size();
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (utxos.get(mid).getOutput().getValue() < target) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low < utxos.size() ? Collections.singletonList(utxos.get(low)) : null;
+		}
+	};
+
+	/**
+	 * 分支定界搜索的最大步数
+	 */
+	private static final int BNB_MAX_TRIES = 100000;
+
+	/**
+	 * 默认策略，可以通过 -Dblockchain.wallet.coinSelection 配置
+	 */
+	public static final CoinSelector DEFAULT = of(System.getProperty("blockchain.wallet.coinSelection", "bnb"));
+
+	private final String name;
+
+	CoinSelector(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * 选择交易输入
+	 *
+	 * @param utxos  按金额从小到大排列的未花费交易输出
+	 * @param target 目标金额，必须大于0
+	 * @return 选中的交易输出，余额不足时返回空列表
+	 */
+	public List<UnspentOutput> select(List<UnspentOutput> utxos, long target) {
+		if (target <= 0) {
+			throw new IllegalArgumentException("Invalid target ! target=" + target);
+		}
+		List<UnspentOutput> selected = this.doSelect(utxos, target);
+		if (selected == null && this != LARGEST_FIRST) {
+			selected = LARGEST_FIRST.doSelect(utxos, target);
+		}
+		return selected == null ? Collections.emptyList() : selected;
+	}
+
+	/**
+	 * @param utxos  按金额从小到大排列的未花费交易输出
+	 * @param target 目标金额
+	 * @return 找不到合适的组合时返回null
+	 */
+	protected abstract List<UnspentOutput> doSelect(List<UnspentOutput> utxos, long target);
+
+	/**
+	 * 根据名称查询策略
+	 *
+	 * @param name largest、bnb 或者 smallest
+	 * @return
+	 */
+	public static CoinSelector of(String name) {
+		for (CoinSelector selector : values()) {
+			if (selector.name.equalsIgnoreCase(name)) {
+				return selector;
+			}
+		}
+		throw new IllegalArgumentException("Unknown coin selection strategy ! name=" + name);
+	}
+}
@@ -0,0 +1,455 @@
+package me.light.blockchain.core;
+
+import com.google.common.collect.Maps;
+import me.light.blockchain.util.RocksDBUtils;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.rocksdb.WriteBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UTXO写回缓存
+ * <p>
+ * 以输出点(交易id:输出下标)为key缓存 chainstate 中的交易输出，连接区块时的读写都先落在缓存上，
+ * 内存占用超过上限或者距离上次刷盘超过一定时间后，才把修改过的记录批量写入DB。
+ * <p>
+ * 每条记录有两个标记：
+ * 1.dirty：记录与DB中的不一致，刷盘时需要写入；
+ * 2.fresh：DB中没有这条记录，花费时直接从缓存中移除，刷盘之前创建又被花费的交易输出完全不会写入DB。
+ * <p>
+ * 同时累计每个地址还没有刷盘的余额变化，刷盘时合并到地址余额中，查询余额只需要一次点查；
+ * 并按地址索引缓存中新增的交易输出，查询地址的UTXO时不需要遍历整个缓存。
+ * <p>
+ * 刷盘时同时记录 chainstate 对应的区块hash值，进程异常退出后可以从这个区块开始重放，见 {@link Blockchain}。
+ *
+ * @author light.hao
+ * @create 2026-10-18-22:10
+ */
+public class CoinsCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(CoinsCache.class);
+
+	/**
+	 * 缓存的内存上限（字节），可以通过 -Dblockchain.cache.coinsSize 配置
+	 */
+	private static final long MAX_SIZE = Long.getLong("blockchain.cache.coinsSize", 64L * 1024 * 1024);
+
+	/**
+	 * 刷盘间隔（秒），可以通过 -Dblockchain.cache.coinsFlushInterval 配置
+	 */
+	private static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toMillis(Long.getLong("blockchain.cache.coinsFlushInterval", 600L));
+
+	/**
+	 * 每条记录除公钥hash以外的内存占用估算值，包括key字符串、记录对象以及哈希表节点
+	 */
+	private static final int ENTRY_OVERHEAD = 256;
+
+	private volatile static CoinsCache instance;
+
+	public static CoinsCache getInstance() {
+		if (instance == null) {
+			synchronized (CoinsCache.class) {
+				if (instance == null) {
+					instance = new CoinsCache(RocksDBUtils.getInstance());
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * 输出点 -> 缓存记录
+	 */
+	private final Map<String, CoinEntry> entries = Maps.newHashMap();
+
+	/**
+	 * 交易id -> 缓存中fresh并且未花费的交易输出个数，用于判断交易是否还有未花费的交易输出
+	 */
+	private final Map<String, Integer> freshCounts = Maps.newHashMap();
+
+	/**
+	 * 公钥hash(十六进制) -> 还没有刷盘的余额变化
+	 */
+	private final Map<String, Long> balanceDeltas = Maps.newHashMap();
+
+	/**
+	 * 公钥hash(十六进制) -> 缓存中新增并且还没有刷盘、也没有花费的输出点
+	 */
+	private final Map<String, Set<String>> addressCoins = Maps.newHashMap();
+
+	private final CoinsView view;
+
+	/**
+	 * 缓存包含的最新区块hash值
+	 */
+	private String bestBlockHash;
+
+	private long size;
+
+	private long lastFlushTime = System.currentTimeMillis();
+
+	CoinsCache(CoinsView view) {
+		this.view = view;
+	}
+
+	/**
+	 * 查询一个未花费的交易输出，缓存没有命中时从DB读取并缓存
+	 *
+	 * @param transactionId 交易id
+	 * @param index         交易输出下标
+	 * @return 不存在或者已经花费时返回null
+	 */
+	public synchronized TransactionOutput getCoin(String transactionId, int index) {
+		CoinEntry entry = this.fetch(transactionId, index);
+		return entry == null || entry.spent ? null : entry.output;
+	}
+
+	/**
+	 * 交易是否还有未花费的交易输出
+	 *
+	 * @param transactionId 交易id
+	 * @return
+	 */
+	public synchronized boolean hasCoins(String transactionId) {
+		if (freshCounts.containsKey(transactionId)) {
+			return true;
+		}
+		for (int index : view.getUTXOIndexes(transactionId)) {
+			CoinEntry entry = entries.get(outpoint(transactionId, index));
+			if (entry == null || !entry.spent) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 添加新的交易输出
+	 *
+	 * @param transactionId 交易id
+	 * @param index         交易输出下标
+	 * @param output        交易输出
+	 * @param height        创建交易输出的区块高度
+	 * @param coinbase      是否是coinbase交易的输出，旧数据中存在交易id重复的coinbase交易，需要确认DB中是否已经存在
+	 */
+	public synchronized void addCoin(String transactionId, int index, TransactionOutput output, long height, boolean coinbase) {
+		String key = outpoint(transactionId, index);
+		CoinEntry existing = entries.get(key);
+		boolean fresh;
+		if (existing != null) {
+			// 已经被花费但还没有刷盘的记录，DB中仍然存在，只有原来就是fresh的记录才能保持fresh
+			fresh = existing.fresh;
+			if (!existing.spent) {
+				this.addBalance(existing.output, -existing.output.getValue());
+			}
+			this.remove(key, existing);
+		} else if (coinbase) {
+			TransactionOutput overwritten = view.getUTXO(transactionId, index);
+			fresh = overwritten == null;
+			if (overwritten != null) {
+				this.addBalance(overwritten, -overwritten.getValue());
+			}
+		} else {
+			fresh = true;
+		}
+		this.put(key, new CoinEntry(output, height, false, true, fresh));
+		this.addBalance(output, output.getValue());
+	}
+
+	/**
+	 * 花费一个交易输出
+	 *
+	 * @param transactionId 交易id
+	 * @param index         交易输出下标
+	 * @return 被花费的交易输出，不存在或者已经花费时返回null
+	 */
+	public synchronized TransactionOutput spendCoin(String transactionId, int index) {
+		CoinEntry entry = this.fetch(transactionId, index);
+		if (entry == null || entry.spent) {
+			return null;
+		}
+		String key = outpoint(transactionId, index);
+		this.addBalance(entry.output, -entry.output.getValue());
+		if (entry.fresh) {
+			this.remove(key, entry);
+		} else {
+			this.removeAddressCoin(key, entry);
+			entry.spent = true;
+			entry.dirty = true;
+		}
+		return entry.output;
+	}
+
+	/**
+	 * 查询公钥hash对应的所有未花费交易输出，在DB中的地址索引上叠加缓存中还没有刷盘的修改，结果按金额从小到大排列
+	 *
+	 * @param publicKeyHash
+	 * @return
+	 */
+	public synchronized List<UnspentOutput> getAddressUTXOs(byte[] publicKeyHash) {
+		Map<String, UnspentOutput> utxos = Maps.newLinkedHashMap();
+		for (UnspentOutput utxo : view.getAddressUTXOs(publicKeyHash)) {
+			String key = outpoint(utxo.getTransactionId(), utxo.getIndex());
+			CoinEntry entry = entries.get(key);
+			if (entry == null || !entry.spent) {
+				utxos.put(key, utxo);
+			}
+		}
+		for (String key : addressCoins.getOrDefault(Hex.encodeHexString(publicKeyHash), Collections.emptySet())) {
+			if (!utxos.containsKey(key)) {
+				int separator = key.lastIndexOf(':');
+				utxos.put(key, new UnspentOutput(key.substring(0, separator),
+						Integer.parseInt(key.substring(separator + 1)), entries.get(key).output));
+			}
+		}
+		List<UnspentOutput> result = new ArrayList<>(utxos.values());
+		// DB中的结果已经按金额排序，只有缓存中新增的交易输出需要调整位置
+		result.sort(Comparator.comparingInt(utxo -> utxo.getOutput().getValue()));
+		return result;
+	}
+
+	/**
+	 * 查询地址余额，DB中的余额加上缓存中还没有刷盘的变化
+	 *
+	 * @param publicKeyHash
+	 * @return
+	 */
+	public synchronized long getBalance(byte[] publicKeyHash) {
+		return view.getBalance(publicKeyHash)
+				+ balanceDeltas.getOrDefault(Hex.encodeHexString(publicKeyHash), 0L);
+	}
+
+	/**
+	 * 记录缓存包含的最新区块
+	 *
+	 * @param blockHash
+	 */
+	public synchronized void setBestBlockHash(String blockHash) {
+		this.bestBlockHash = blockHash;
+	}
+
+	/**
+	 * 内存占用是否超过上限
+	 *
+	 * @return
+	 */
+	public synchronized boolean isFull() {
+		return size > MAX_SIZE;
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * 内存占用超过上限或者距离上次刷盘超过刷盘间隔时需要刷盘
+	 *
+	 * @return
+	 */
+	public synchronized boolean shouldFlush() {
+		return this.isFull() || System.currentTimeMillis() - lastFlushTime > FLUSH_INTERVAL;
+	}
+
+	/**
+	 * 将修改过的记录以及缓存对应的区块hash值加入到批量写入中，提交成功后需要调用 {@link #clear()}
+	 * <p>
+	 * 花费的交易输出只需要删除对应的key，不需要读取DB
+	 *
+	 * @param batch
+	 */
+	public synchronized void writeTo(WriteBatch batch) {
+		int dirtyCount = 0;
+		for (Map.Entry<String, CoinEntry> coin : entries.entrySet()) {
+			CoinEntry entry = coin.getValue();
+			if (!entry.dirty) {
+				continue;
+			}
+			String key = coin.getKey();
+			int separator = key.lastIndexOf(':');
+			String transactionId = key.substring(0, separator);
+			int index = Integer.parseInt(key.substring(separator + 1));
+			if (entry.spent) {
+				view.deleteUTXO(batch, transactionId, index);
+				view.deleteAddressIndex(batch, entry.output.getOwnerPublicKeyHash(), transactionId, index,
+						entry.output.getValue());
+			} else {
+				view.putUTXO(batch, transactionId, index, entry.output, entry.height);
+				view.putAddressIndex(batch, entry.output.getOwnerPublicKeyHash(), transactionId,
+						index, entry.output.getValue());
+			}
+			dirtyCount++;
+		}
+
+		for (Map.Entry<String, Long> delta : balanceDeltas.entrySet()) {
+			byte[] publicKeyHash = decodeHex(delta.getKey());
+			view.putBalance(batch, publicKeyHash,
+					view.getBalance(publicKeyHash) + delta.getValue());
+		}
+
+		if (bestBlockHash != null) {
+			view.putChainStateTip(batch, bestBlockHash);
+		}
+		logger.info("Flush coins cache, entries={}, dirty={}, size={}", entries.size(), dirtyCount, size);
+	}
+
+	/**
+	 * 将修改过的记录写入DB并清空缓存
+	 */
+	public synchronized void flush() {
+		if (bestBlockHash == null && entries.isEmpty()) {
+			return;
+		}
+		try (WriteBatch batch = new WriteBatch()) {
+			this.writeTo(batch);
+			view.writeBatch(batch);
+		}
+		this.clear();
+	}
+
+	/**
+	 * 清空缓存，在刷盘成功、重建UTXO池或者写入失败需要丢弃缓存时调用
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		freshCounts.clear();
+		balanceDeltas.clear();
+		addressCoins.clear();
+		bestBlockHash = null;
+		size = 0;
+		lastFlushTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * 查询缓存记录，缓存没有命中时从DB读取，DB中也不存在时不缓存
+	 *
+	 * @param transactionId
+	 * @param index
+	 * @return
+	 */
+	private CoinEntry fetch(String transactionId, int index) {
+		String key = outpoint(transactionId, index);
+		CoinEntry entry = entries.get(key);
+		if (entry != null) {
+			return entry;
+		}
+		TransactionOutput output = view.getUTXO(transactionId, index);
+		if (output == null) {
+			return null;
+		}
+		// 干净的记录不会写回DB，不需要创建高度
+		entry = new CoinEntry(output, -1, false, false, false);
+		this.put(key, entry);
+		return entry;
+	}
+
+	private void put(String key, CoinEntry entry) {
+		entries.put(key, entry);
+		size += entry.size();
+		if (entry.fresh) {
+			freshCounts.merge(transactionIdOf(key), 1, Integer::sum);
+		}
+		if (entry.dirty && !entry.spent) {
+			addressCoins.computeIfAbsent(Hex.encodeHexString(entry.output.getOwnerPublicKeyHash()), k -> new HashSet<>()).add(key);
+		}
+	}
+
+	private void remove(String key, CoinEntry entry) {
+		entries.remove(key);
+		size -= entry.size();
+		if (entry.fresh && !entry.spent) {
+			freshCounts.computeIfPresent(transactionIdOf(key), (transactionId, count) -> count == 1 ? null : count - 1);
+		}
+		this.removeAddressCoin(key, entry);
+	}
+
+	/**
+	 * 从地址索引中移除缓存中新增的交易输出，在交易输出被花费或者移出缓存时调用
+	 *
+	 * @param key
+	 * @param entry
+	 */
+	private void removeAddressCoin(String key, CoinEntry entry) {
+		if (!entry.dirty || entry.spent) {
+			return;
+		}
+		String publicKeyHash = Hex.encodeHexString(entry.output.getOwnerPublicKeyHash());
+		Set<String> keys = addressCoins.get(publicKeyHash);
+		if (keys != null && keys.remove(key) && keys.isEmpty()) {
+			addressCoins.remove(publicKeyHash);
+		}
+	}
+
+	/**
+	 * 记录交易输出锁定地址的余额变化
+	 *
+	 * @param output
+	 * @param amount 增加的金额，花费时为负数
+	 */
+	private void addBalance(TransactionOutput output, long amount) {
+		String publicKeyHash = Hex.encodeHexString(output.getOwnerPublicKeyHash());
+		if (!balanceDeltas.containsKey(publicKeyHash)) {
+			size += ENTRY_OVERHEAD;
+		}
+		balanceDeltas.merge(publicKeyHash, amount, Long::sum);
+	}
+
+	private static byte[] decodeHex(String hex) {
+		try {
+			return Hex.decodeHex(hex.toCharArray());
+		} catch (DecoderException e) {
+			throw new IllegalArgumentException("Invalid hex ! hex=" + hex, e);
+		}
+	}
+
+	private static String outpoint(String transactionId, int index) {
+		return transactionId + ":" + index;
+	}
+
+	private static String transactionIdOf(String outpoint) {
+		return outpoint.substring(0, outpoint.lastIndexOf(':'));
+	}
+
+	/**
+	 * 缓存记录
+	 */
+	private static class CoinEntry {
+
+		/**
+		 * 交易输出，花费后仍然保留，刷盘时用于删除地址索引
+		 */
+		private final TransactionOutput output;
+
+		/**
+		 * 创建交易输出的区块高度
+		 */
+		private final long height;
+
+		private boolean spent;
+
+		private boolean dirty;
+
+		private final boolean fresh;
+
+		private CoinEntry(TransactionOutput output, long height, boolean spent, boolean dirty, boolean fresh) {
+			this.output = output;
+			this.height = height;
+			this.spent = spent;
+			this.dirty = dirty;
+			this.fresh = fresh;
+		}
+
+		private long size() {
+			return ENTRY_OVERHEAD + output.getPublicKeyHash().length;
+		}
+	}
+}
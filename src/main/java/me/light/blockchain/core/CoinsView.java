@@ -0,0 +1,43 @@
+package me.light.blockchain.core;
+
+import org.rocksdb.WriteBatch;
+
+import java.util.List;
+
+/**
+ * {@link CoinsCache} 背后的链状态存储
+ * <p>
+ * 读取方法直接查询存储，写入方法只把修改加入到批量写入中，由 {@link #writeBatch(WriteBatch)} 原子地提交。
+ * 默认实现是 {@link me.light.blockchain.util.RocksDBUtils}。
+ *
+ * @author light.hao
+ * @create 2026-10-19-10:40
+ */
+public interface CoinsView {
+
+	TransactionOutput getUTXO(String transactionId, int index);
+
+	List<Integer> getUTXOIndexes(String transactionId);
+
+	/**
+	 * @param publicKeyHash
+	 * @return 按金额从小到大排列
+	 */
+	List<UnspentOutput> getAddressUTXOs(byte[] publicKeyHash);
+
+	long getBalance(byte[] publicKeyHash);
+
+	void putUTXO(WriteBatch batch, String transactionId, int index, TransactionOutput output, long height);
+
+	void deleteUTXO(WriteBatch batch, String transactionId, int index);
+
+	void putAddressIndex(WriteBatch batch, byte[] publicKeyHash, String transactionId, int index, int value);
+
+	void deleteAddressIndex(WriteBatch batch, byte[] publicKeyHash, String transactionId, int index, int value);
+
+	void putBalance(WriteBatch batch, byte[] publicKeyHash, long balance);
+
+	void putChainStateTip(WriteBatch batch, String blockHash);
+
+	void writeBatch(WriteBatch batch);
+}
@@ -0,0 +1,441 @@
+package me.light.blockchain.core;
+
+import me.light.blockchain.util.BinaryReader;
+import me.light.blockchain.util.BinaryWriter;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 交易池
+ * <p>
+ * 保存已经验证但还没有被打包进区块的交易。交易按交易id索引，同时按花费的输出点(交易id:输出下标)索引，
+ * 花费同一个输出点的冲突交易可以在 O(1) 时间内被拒绝。交易可以花费池中其他未确认交易的输出，
+ * 钱包通过 {@link #getUnspentOutputs(byte[])} 获得未确认的交易输出，创建依赖未确认父交易的交易。
+ * 交易个数或者总字节数超过上限时，按手续费率从低到高淘汰交易以及依赖它的后代交易。
+ * 交易集合发生变化后通知监听器，挖矿任务据此放弃过期的区块模板。
+ * <p>
+ * 读操作可以并发执行，修改操作串行执行。
+ *
+ * @author light.hao
+ * @create 2026-10-18-21:00
+ */
+public class Mempool {
+
+	private static final Logger logger = LoggerFactory.getLogger(Mempool.class);
+
+	/**
+	 * 交易池文件，进程退出前保存，启动时重新加载
+	 */
+	private static final String MEMPOOL_FILE = "mempool.dat";
+
+	/**
+	 * 交易个数上限，可以通过 -Dblockchain.mempool.maxTransactions 配置
+	 */
+	private static final int MAX_TRANSACTIONS = Integer.getInteger("blockchain.mempool.maxTransactions", 50000);
+
+	/**
+	 * 总字节数上限，可以通过 -Dblockchain.mempool.maxBytes 配置
+	 */
+	private static final long MAX_BYTES = Long.getLong("blockchain.mempool.maxBytes", 64L * 1024 * 1024);
+
+	/**
+	 * 按交易id索引的交易
+	 */
+	private final Map<String, MempoolEntry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * 花费的输出点 -> 花费它的交易id
+	 */
+	private final Map<String, String> spentOutpoints = new ConcurrentHashMap<>();
+
+	/**
+	 * 交易集合变化的监听器
+	 */
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+	private final UTXOSet utxoSet;
+
+	private final int maxTransactions;
+
+	private final long maxBytes;
+
+	private long sequence;
+
+	private long totalBytes;
+
+	public Mempool(Blockchain blockchain) {
+		this(new UTXOSet(blockchain), MAX_TRANSACTIONS, MAX_BYTES);
+	}
+
+	/**
+	 * @param utxoSet         验证交易使用的UTXO池
+	 * @param maxTransactions 交易个数上限
+	 * @param maxBytes        总字节数上限
+	 */
+	public Mempool(UTXOSet utxoSet, int maxTransactions, long maxBytes) {
+		this.utxoSet = utxoSet;
+		this.maxTransactions = maxTransactions;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * 验证并加入交易
+	 *
+	 * @param transaction
+	 * @throws Exception 交易无效、与池中的交易冲突或者因为交易池已满被淘汰时抛出
+	 */
+	public synchronized void add(Transaction transaction) throws Exception {
+		String transactionId = Hex.encodeHexString(transaction.getTransactionId());
+		if (transaction.isCoinBase()) {
+			throw new Exception("ERROR: Coinbase transaction can not be added to mempool ! transactionId=" + transactionId);
+		}
+		if (entries.containsKey(transactionId)) {
+			throw new Exception("ERROR: Transaction already in mempool ! transactionId=" + transactionId);
+		}
+		Set<String> parents = new HashSet<>();
+		for (TransactionInput input : transaction.getInputs()) {
+			String prevTransactionId = Hex.encodeHexString(input.getTransactionId());
+			String spender = spentOutpoints.get(outpoint(prevTransactionId, input.getTransactionOutputIndex()));
+			if (spender != null) {
+				throw new Exception("ERROR: Conflicts with mempool transaction ! transactionId=" + transactionId
+						+ ", conflict=" + spender);
+			}
+			if (entries.containsKey(prevTransactionId)) {
+				parents.add(prevTransactionId);
+			}
+		}
+
+		TransactionValidator validator = new TransactionValidator(utxoSet, txId -> {
+			MempoolEntry parent = entries.get(txId);
+			return parent == null ? null : parent.transaction.getOutputs();
+		});
+		validator.validate(new Transaction[]{transaction});
+
+		MempoolEntry entry = new MempoolEntry(transactionId, transaction,
+				CanonicalCodec.encodeTransaction(transaction).length, validator.getFees(), sequence++, parents);
+		entries.put(transactionId, entry);
+		for (TransactionInput input : transaction.getInputs()) {
+			spentOutpoints.put(outpoint(Hex.encodeHexString(input.getTransactionId()), input.getTransactionOutputIndex()), transactionId);
+		}
+		totalBytes += entry.size;
+
+		trim();
+		if (!entries.containsKey(transactionId)) {
+			throw new Exception("ERROR: Mempool full, fee rate too low ! transactionId=" + transactionId);
+		}
+		this.fireUpdated();
+	}
+
+	/**
+	 * 交易个数或者总字节数超过上限时，淘汰手续费率最低的交易以及它的后代交易
+	 */
+	private void trim() {
+		while (!entries.isEmpty() && (entries.size() > maxTransactions || totalBytes > maxBytes)) {
+			MempoolEntry lowest = entries.values().stream().min(Comparator.comparing(e -> e, MempoolEntry::compareFeeRate)).get();
+			logger.info("Evict transaction from mempool, transactionId={}, fee={}, size={}", lowest.transactionId, lowest.fee, lowest.size);
+			removeWithDescendants(lowest.transactionId);
+		}
+	}
+
+	/**
+	 * 组装区块模板
+	 * <p>
+	 * 按手续费率从高到低选择交易，选择一个交易时同时选择它所有还在交易池中的祖先交易，
+	 * 返回的交易按加入交易池的顺序排列，父交易总是在子交易之前
+	 *
+	 * @param maxTransactions 最多选择的交易个数
+	 * @return
+	 */
+	public synchronized Transaction[] getBlockTemplate(int maxTransactions) {
+		List<MempoolEntry> candidates = new ArrayList<>(entries.values());
+		candidates.sort((a, b) -> b.compareFeeRate(a) != 0 ? b.compareFeeRate(a) : Long.compare(a.sequence, b.sequence));
+
+		Set<MempoolEntry> selected = new LinkedHashSet<>();
+		for (MempoolEntry candidate : candidates) {
+			if (selected.contains(candidate)) {
+				continue;
+			}
+			Set<MempoolEntry> pkg = new LinkedHashSet<>();
+			collectAncestors(candidate, selected, pkg);
+			if (selected.size() + pkg.size() <= maxTransactions) {
+				selected.addAll(pkg);
+			}
+		}
+
+		return selected.stream()
+				.sorted(Comparator.comparingLong(e -> e.sequence))
+				.map(e -> e.transaction)
+				.toArray(Transaction[]::new);
+	}
+
+	/**
+	 * 收集交易本身以及还没有被选择的祖先交易
+	 *
+	 * @param entry
+	 * @param selected 已经选择的交易
+	 * @param pkg      收集结果
+	 */
+	private void collectAncestors(MempoolEntry entry, Set<MempoolEntry> selected, Set<MempoolEntry> pkg) {
+		if (selected.contains(entry) || !pkg.add(entry)) {
+			return;
+		}
+		for (String parentId : entry.parents) {
+			MempoolEntry parent = entries.get(parentId);
+			if (parent != null) {
+				collectAncestors(parent, selected, pkg);
+			}
+		}
+	}
+
+	/**
+	 * 区块加入区块链后调用，移除已经确认的交易，以及与区块中的交易冲突的交易和它们的后代交易
+	 *
+	 * @param block
+	 */
+	public synchronized void removeForBlock(Block block) {
+		int size = entries.size();
+		for (Transaction transaction : block.getTransactions()) {
+			String transactionId = Hex.encodeHexString(transaction.getTransactionId());
+			if (!transaction.isCoinBase()) {
+				for (TransactionInput input : transaction.getInputs()) {
+					String spender = spentOutpoints.get(outpoint(Hex.encodeHexString(input.getTransactionId()),
+							input.getTransactionOutputIndex()));
+					if (spender != null && !spender.equals(transactionId)) {
+						logger.info("Remove conflicting transaction from mempool, transactionId={}", spender);
+						removeWithDescendants(spender);
+					}
+				}
+			}
+			remove(transactionId);
+		}
+		if (entries.size() != size) {
+			this.fireUpdated();
+		}
+	}
+
+	/**
+	 * 移除交易以及所有花费它的输出的后代交易
+	 *
+	 * @param transactionId
+	 */
+	private void removeWithDescendants(String transactionId) {
+		MempoolEntry entry = entries.get(transactionId);
+		if (entry == null) {
+			return;
+		}
+		int outputCount = entry.transaction.getOutputs().length;
+		for (int i = 0; i < outputCount; i++) {
+			String child = spentOutpoints.get(outpoint(transactionId, i));
+			if (child != null) {
+				removeWithDescendants(child);
+			}
+		}
+		remove(transactionId);
+	}
+
+	/**
+	 * 只移除交易本身
+	 *
+	 * @param transactionId
+	 */
+	private void remove(String transactionId) {
+		MempoolEntry entry = entries.remove(transactionId);
+		if (entry == null) {
+			return;
+		}
+		for (TransactionInput input : entry.transaction.getInputs()) {
+			spentOutpoints.remove(outpoint(Hex.encodeHexString(input.getTransactionId()), input.getTransactionOutputIndex()), transactionId);
+		}
+		totalBytes -= entry.size;
+	}
+
+	/**
+	 * 输出点是否已经被交易池中的交易花费
+	 *
+	 * @param transactionId 交易id
+	 * @param index         交易输出下标
+	 * @return
+	 */
+	public boolean isSpent(String transactionId, int index) {
+		return spentOutpoints.containsKey(outpoint(transactionId, index));
+	}
+
+	/**
+	 * 查询交易池中锁定到指定公钥hash并且没有被池中其他交易花费的交易输出，即钱包未确认的余额
+	 * <p>
+	 * 需要遍历交易池中的所有交易，只在钱包创建交易时调用
+	 *
+	 * @param publicKeyHash 钱包的公钥hash
+	 * @return
+	 */
+	public synchronized List<UnspentOutput> getUnspentOutputs(byte[] publicKeyHash) {
+		List<UnspentOutput> utxos = new ArrayList<>();
+		for (MempoolEntry entry : entries.values()) {
+			TransactionOutput[] outputs = entry.transaction.getOutputs();
+			for (int index = 0; index < outputs.length; index++) {
+				if (outputs[index].isLockedWithKey(publicKeyHash) && !isSpent(entry.transactionId, index)) {
+					utxos.add(new UnspentOutput(entry.transactionId, index, outputs[index]));
+				}
+			}
+		}
+		return utxos;
+	}
+
+	/**
+	 * 注册交易集合变化的监听器，交易加入、被淘汰或者随区块确认移除后调用
+	 * <p>
+	 * 监听器在持有交易池锁的线程中调用，不能阻塞，也不能修改交易池
+	 *
+	 * @param listener
+	 */
+	public void addListener(Runnable listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Runnable listener) {
+		listeners.remove(listener);
+	}
+
+	private void fireUpdated() {
+		for (Runnable listener : listeners) {
+			listener.run();
+		}
+	}
+
+	public Transaction getTransaction(String transactionId) {
+		MempoolEntry entry = entries.get(transactionId);
+		return entry == null ? null : entry.transaction;
+	}
+
+	public boolean contains(String transactionId) {
+		return entries.containsKey(transactionId);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * 从文件加载交易池，交易会按原来的顺序重新验证，已经失效的交易被丢弃
+	 *
+	 * @param blockchain
+	 * @return
+	 */
+	public static Mempool load(Blockchain blockchain) {
+		Mempool mempool = new Mempool(blockchain);
+		Path path = Paths.get(MEMPOOL_FILE);
+		if (!Files.exists(path)) {
+			return mempool;
+		}
+		try {
+			BinaryReader reader = new BinaryReader(Files.readAllBytes(path));
+			int count = reader.readCount();
+			for (int i = 0; i < count; i++) {
+				Transaction transaction = CanonicalCodec.decodeTransaction(reader.readVarBytes());
+				try {
+					mempool.add(transaction);
+				} catch (Exception e) {
+					logger.info("Drop mempool transaction, transactionId={}, reason={}",
+							Hex.encodeHexString(transaction.getTransactionId()), e.getMessage());
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			throw new RuntimeException("Fail to load mempool ! ", e);
+		}
+		return mempool;
+	}
+
+	/**
+	 * 按加入顺序将交易池保存到文件，先写临时文件再替换
+	 */
+	public synchronized void save() {
+		BinaryWriter writer = new BinaryWriter();
+		List<MempoolEntry> ordered = new ArrayList<>(entries.values());
+		ordered.sort(Comparator.comparingLong(e -> e.sequence));
+		writer.writeVarInt(ordered.size());
+		for (MempoolEntry entry : ordered) {
+			writer.writeVarBytes(CanonicalCodec.encodeTransaction(entry.transaction));
+		}
+		try {
+			Path path = Paths.get(MEMPOOL_FILE);
+			Path tempPath = Paths.get(MEMPOOL_FILE + ".new");
+			Files.write(tempPath, writer.toByteArray());
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new RuntimeException("Fail to save mempool ! ", e);
+		}
+	}
+
+	private static String outpoint(String transactionId, int index) {
+		return transactionId + ":" + index;
+	}
+
+	/**
+	 * 交易池中的交易
+	 */
+	private static class MempoolEntry {
+
+		private final String transactionId;
+
+		private final Transaction transaction;
+
+		/**
+		 * 规范编码后的字节数
+		 */
+		private final int size;
+
+		/**
+		 * 手续费
+		 */
+		private final long fee;
+
+		/**
+		 * 加入交易池的顺序
+		 */
+		private final long sequence;
+
+		/**
+		 * 还在交易池中的父交易
+		 */
+		private final Set<String> parents;
+
+		private MempoolEntry(String transactionId, Transaction transaction, int size, long fee, long sequence, Set<String> parents) {
+			this.transactionId = transactionId;
+			this.transaction = transaction;
+			this.size = size;
+			this.fee = fee;
+			this.sequence = sequence;
+			this.parents = parents;
+		}
+
+		/**
+		 * 比较手续费率 fee / size，交叉相乘避免浮点数
+		 *
+		 * @param other
+		 * @return
+		 */
+		private int compareFeeRate(MempoolEntry other) {
+			return Long.compare(this.fee * other.size, other.fee * this.size);
+		}
+	}
+}
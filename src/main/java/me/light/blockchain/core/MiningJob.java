@@ -0,0 +1,190 @@
+package me.light.blockchain.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 挖矿任务
+ * <p>
+ * 在后台线程中为一个区块模板搜索 nonce，通过 {@link #getFuture()} 获取挖到的区块。
+ * 每个区块模板只搜索 {@link #NONCE_RANGE} 个 nonce，耗尽后刷新时间戳，时间戳没有变化时改变coinbase交易中的额外nonce，
+ * 然后用新的区块模板继续搜索。
+ * 最新区块变化或者交易集合更新后，当前模板已经过期，任务会被取消，
+ * 见 {@link Blockchain#startMiningJob(Transaction[], Mempool)}。
+ *
+ * @author light.hao
+ * @create 2026-10-18-17:20
+ */
+public class MiningJob {
+
+	private static final Logger logger = LoggerFactory.getLogger(MiningJob.class);
+
+	/**
+	 * 每个区块模板搜索的 nonce 个数，可以通过 -Dblockchain.mining.nonceRange 配置
+	 */
+	private static final long NONCE_RANGE = Long.getLong("blockchain.mining.nonceRange", 1L << 32);
+
+	/**
+	 * 前一个区块的hash值
+	 */
+	private final String previousHash;
+
+	/**
+	 * 新区块的高度
+	 */
+	private final long height;
+
+	/**
+	 * 区块模板中的交易，coinbase交易在每次刷新模板时重新生成
+	 */
+	private final Transaction[] transactions;
+
+	/**
+	 * 挖矿结果
+	 */
+	private final CompletableFuture<Block> future = new CompletableFuture<>();
+
+	/**
+	 * 已尝试的hash次数
+	 */
+	private final LongAdder hashesTried = new LongAdder();
+
+	private final long startTime = System.currentTimeMillis();
+
+	/**
+	 * 当前的额外nonce
+	 */
+	private volatile long extraNonce;
+
+	private MiningJob(String previousHash, long height, Transaction[] transactions) {
+		this.previousHash = previousHash;
+		this.height = height;
+		this.transactions = transactions;
+	}
+
+	/**
+	 * 创建并启动挖矿任务
+	 *
+	 * @param previousHash 前一个区块的hash值
+	 * @param height       新区块的高度
+	 * @param transactions 打包的交易
+	 * @return
+	 */
+	public static MiningJob start(String previousHash, long height, Transaction[] transactions) {
+		MiningJob job = new MiningJob(previousHash, height, transactions.clone());
+		Thread thread = new Thread(job::mine, "mining-job-" + height);
+		thread.setDaemon(true);
+		thread.start();
+		return job;
+	}
+
+	/**
+	 * 挖矿，直到找到满足难度目标的区块或者任务被取消
+	 */
+	private void mine() {
+		try {
+			long timeStamp = Instant.now().getEpochSecond();
+			while (!future.isDone()) {
+				Block block = new Block(null, previousHash, newTemplateTransactions(), timeStamp);
+				ProofOfWork proofOfWork = ProofOfWork.newProofOfWork(block);
+				PowResult powResult = proofOfWork.search(NONCE_RANGE, future::isDone, hashesTried);
+				if (powResult != null) {
+					block.setHash(powResult.getHash());
+					block.setNonce(powResult.getNonce());
+					logger.info("Block mined, height={}, hash={}, hashesTried={}", height, block.getHash(), getHashesTried());
+					future.complete(block);
+					return;
+				}
+
+				// nonce 范围耗尽，刷新区块模板
+				long now = Instant.now().getEpochSecond();
+				if (now != timeStamp) {
+					timeStamp = now;
+				} else {
+					extraNonce++;
+				}
+				logger.info("Refresh block template, height={}, timeStamp={}, extraNonce={}, hashesTried={}, hashRate={}/s",
+						height, timeStamp, extraNonce, getHashesTried(), (long) getHashRate());
+			}
+		} catch (Throwable e) {
+			future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * 生成区块模板中的交易，coinbase交易加入区块高度和当前的额外nonce
+	 *
+	 * @return
+	 */
+	private Transaction[] newTemplateTransactions() {
+		Transaction[] templateTransactions = transactions.clone();
+		for (int i = 0; i < templateTransactions.length; i++) {
+			if (templateTransactions[i].isCoinBase()) {
+				templateTransactions[i] = templateTransactions[i].withExtraNonce(height, extraNonce);
+			}
+		}
+		return templateTransactions;
+	}
+
+	/**
+	 * 取消挖矿任务
+	 *
+	 * @param reason 取消原因
+	 * @return 任务已经完成时返回false
+	 */
+	public boolean cancel(String reason) {
+		boolean cancelled = future.cancel(false);
+		if (cancelled) {
+			logger.info("Mining job cancelled, height={}, reason={}, hashesTried={}", height, reason, getHashesTried());
+		}
+		return cancelled;
+	}
+
+	/**
+	 * 最新区块变化时调用，不再基于最新区块挖矿时取消任务
+	 *
+	 * @param tipHash 最新区块的hash值
+	 */
+	public void onTipChanged(String tipHash) {
+		if (!previousHash.equals(tipHash)) {
+			cancel("tip changed to " + tipHash);
+		}
+	}
+
+	/**
+	 * 交易池中的交易集合更新时调用，取消任务以便使用新的交易集合重新挖矿
+	 */
+	public void onTransactionsUpdated() {
+		cancel("transactions updated");
+	}
+
+	public CompletableFuture<Block> getFuture() {
+		return future;
+	}
+
+	public String getPreviousHash() {
+		return previousHash;
+	}
+
+	public long getHeight() {
+		return height;
+	}
+
+	public long getHashesTried() {
+		return hashesTried.sum();
+	}
+
+	/**
+	 * 平均每秒尝试的hash次数
+	 *
+	 * @return
+	 */
+	public double getHashRate() {
+		long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+		return getHashesTried() * 1000.0 / elapsed;
+	}
+}
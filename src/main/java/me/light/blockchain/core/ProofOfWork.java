@@ -1,10 +1,25 @@
 package me.light.blockchain.core;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.light.blockchain.util.BinaryWriter;
 import me.light.blockchain.util.ByteUtils;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.math.BigInteger;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
 
 /**
  * 工作量证明类
@@ -19,6 +34,22 @@ public class ProofOfWork {
 	 */
 	private static final int TAGET_BITS = 20;
 
+	/**
+	 * 挖矿线程数，可以通过 -Dblockchain.mining.threads 配置，默认为CPU核数
+	 */
+	private static final int MINING_THREADS = Integer.getInteger("blockchain.mining.threads",
+			Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * 挖矿线程检查停止条件的间隔次数
+	 */
+	private static final int CHECK_INTERVAL = 4096;
+
+	/**
+	 * 所有挖矿任务共享的线程池，第一次多线程挖矿时创建
+	 */
+	private volatile static ExecutorService executor;
+
 	/**
 	 * 区块
 	 */
@@ -63,37 +94,236 @@ public class ProofOfWork {
 	}
 
 	/**
-	 * 运行工作量证明
+	 * 区块的工作量，即找到一个满足难度目标的hash平均需要的计算次数
+	 *
+	 * @return
+	 */
+	public BigInteger getWork() {
+		return BigInteger.ONE.shiftLeft(256).divide(this.target.add(BigInteger.ONE));
+	}
+
+	/**
+	 * 运行工作量证明，直到找到满足难度目标的 nonce
 	 *
 	 * @return
 	 */
 	public PowResult run() {
-		long nonce = 0;
-		String shaHex = "";
 		System.out.printf("Mining the block containing：%s \n", this.getBlock().getTransactions());
 		long startTime = System.currentTimeMillis();
-		while (nonce < Long.MAX_VALUE) {
-			byte[] data = prepare(nonce);
-			shaHex = DigestUtils.sha256Hex(data);
-			if (new BigInteger(shaHex, 16).compareTo(this.target) == -1) {
-				//小于目标值
-				System.out.printf("Elapsed Time: %s seconds \n", (float) (System.currentTimeMillis() - startTime) / 1000);
-				System.out.printf("correct hash Hex: %s \n\n", shaHex);
-				break;
-			} else {
-				nonce++;
+
+		PowResult powResult = search(Long.MAX_VALUE, () -> false, null);
+		if (powResult == null) {
+			throw new RuntimeException("Fail to find nonce ! ");
+		}
+		System.out.printf("Elapsed Time: %s seconds \n", (float) (System.currentTimeMillis() - startTime) / 1000);
+		System.out.printf("correct hash Hex: %s \n\n", powResult.getHash());
+		return powResult;
+	}
+
+	/**
+	 * 在 [0, nonceRange) 范围内搜索 nonce
+	 *
+	 * @param nonceRange  搜索范围
+	 * @param stopped     是否需要停止，挖矿线程定期检查
+	 * @param hashesTried 已尝试的hash次数，可以为null
+	 * @return 范围耗尽或者被停止时返回null
+	 */
+	public PowResult search(long nonceRange, BooleanSupplier stopped, LongAdder hashesTried) {
+		return searchHeader(prepareHeader(), toTargetBytes(this.target), 0, nonceRange, stopped, hashesTried);
+	}
+
+	/**
+	 * 在 [fromNonce, toNonce) 范围内为给定的区块头搜索 nonce，用于只拿到区块头模板而没有区块的矿工
+	 * <p>
+	 * nonce 空间按线程数交错划分，第 i 个线程依次尝试 fromNonce + i, fromNonce + i + n ...，
+	 * 任意一个线程找到满足难度目标的hash后，其余线程都会停止
+	 *
+	 * @param header      区块头模板
+	 * @param targetBytes 32字节大端序的难度目标值
+	 * @param fromNonce   起始 nonce(包含)
+	 * @param toNonce     结束 nonce(不包含)
+	 * @param stopped     是否需要停止，挖矿线程定期检查
+	 * @param hashesTried 已尝试的hash次数，可以为null
+	 * @return 范围耗尽或者被停止时返回null
+	 */
+	public static PowResult searchHeader(byte[] header, byte[] targetBytes, long fromNonce, long toNonce,
+										 BooleanSupplier stopped, LongAdder hashesTried) {
+		AtomicReference<PowResult> result = new AtomicReference<>();
+		if (MINING_THREADS <= 1) {
+			search(header, targetBytes, fromNonce, 1, toNonce, stopped, hashesTried, result);
+			return result.get();
+		}
+
+		List<Future<?>> futures = new ArrayList<>(MINING_THREADS);
+		try {
+			for (int i = 0; i < MINING_THREADS; i++) {
+				long start = fromNonce + i;
+				futures.add(getExecutor().submit(() ->
+						search(header, targetBytes, start, MINING_THREADS, toNonce, stopped, hashesTried, result)));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Mining interrupted ! ", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Fail to mine block ! ", e.getCause());
+		} finally {
+			// 异常或者中断退出时中断其余的挖矿线程，线程池中的线程继续留给下一次挖矿
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return result.get();
+	}
+
+	/**
+	 * 获取挖矿线程池
+	 *
+	 * @return
+	 */
+	private static ExecutorService getExecutor() {
+		if (executor == null) {
+			synchronized (ProofOfWork.class) {
+				if (executor == null) {
+					executor = Executors.newFixedThreadPool(MINING_THREADS, new ThreadFactoryBuilder()
+							.setNameFormat("pow-worker-%d")
+							.setDaemon(true)
+							.build());
+				}
 			}
 		}
-		return new PowResult(nonce, shaHex);
+		return executor;
 	}
 
 	/**
-	 * 准备数据
+	 * 从 start 开始按步长搜索 nonce，找到后写入结果，其他线程已经找到或者需要停止时退出
+	 * <p>
+	 * 每个线程只复制一次区块头，循环中只改写区块头末尾的 nonce，
+	 * 复用 MessageDigest 和hash缓冲区，直接按字节与难度目标比较，不产生任何对象。
+	 * 停止条件(包括线程被中断)和计数每 {@link #CHECK_INTERVAL} 次检查和累加一次
+	 *
+	 * @param headerTemplate 区块头模板
+	 * @param targetBytes    32字节大端序的难度目标值
+	 * @param start          起始 nonce
+	 * @param step           步长，即线程数
+	 * @param toNonce        结束 nonce(不包含)
+	 * @param stopped        是否需要停止
+	 * @param hashesTried    已尝试的hash次数，可以为null
+	 * @param result         搜索结果
+	 */
+	private static void search(byte[] headerTemplate, byte[] targetBytes, long start, int step, long toNonce,
+						BooleanSupplier stopped, LongAdder hashesTried, AtomicReference<PowResult> result) {
+		byte[] header = headerTemplate.clone();
+		byte[] hash = new byte[CanonicalCodec.HASH_LENGTH];
+		MessageDigest digest = DigestUtils.getSha256Digest();
+		int tried = 0;
+		try {
+			for (long nonce = start; nonce >= 0 && nonce < toNonce; nonce += step) {
+				CanonicalCodec.writeNonce(header, nonce);
+				digest.update(header, 0, header.length);
+				digest.digest(hash, 0, hash.length);
+				tried++;
+				if (lessThan(hash, targetBytes)) {
+					//小于目标值
+					result.compareAndSet(null, new PowResult(nonce, Hex.encodeHexString(hash)));
+					return;
+				}
+				if (tried == CHECK_INTERVAL) {
+					if (hashesTried != null) {
+						hashesTried.add(tried);
+					}
+					tried = 0;
+					if (result.get() != null || stopped.getAsBoolean() || Thread.currentThread().isInterrupted()) {
+						return;
+					}
+				}
+			}
+		} catch (DigestException e) {
+			throw new RuntimeException("Fail to hash block header ! ", e);
+		} finally {
+			if (hashesTried != null) {
+				hashesTried.add(tried);
+			}
+		}
+	}
+
+	/**
+	 * 准备区块头模板，默克尔树根等只在这里计算一次，nonce 由挖矿线程写入
+	 *
+	 * @return
+	 */
+	public byte[] prepareHeader() {
+		if (this.getBlock().isLegacyEncoding()) {
+			throw new IllegalStateException("Legacy block can not be mined ! blockHash=" + this.getBlock().getHash());
+		}
+		return prepare(0);
+	}
+
+	/**
+	 * 难度目标值转化为32字节大端序的字节数组
+	 *
+	 * @param target
+	 * @return
+	 */
+	public static byte[] toTargetBytes(BigInteger target) {
+		byte[] bytes = target.toByteArray();
+		byte[] targetBytes = new byte[CanonicalCodec.HASH_LENGTH];
+		if (bytes.length > targetBytes.length) {
+			// 目标值不小于2^256，任何hash都满足
+			Arrays.fill(targetBytes, (byte) 0xFF);
+			return targetBytes;
+		}
+		System.arraycopy(bytes, 0, targetBytes, targetBytes.length - bytes.length, bytes.length);
+		return targetBytes;
+	}
+
+	/**
+	 * 按无符号大端序比较hash是否小于难度目标值
+	 *
+	 * @param hash
+	 * @param targetBytes
+	 * @return
+	 */
+	public static boolean lessThan(byte[] hash, byte[] targetBytes) {
+		for (int i = 0; i < hash.length; i++) {
+			int a = hash[i] & 0xFF;
+			int b = targetBytes[i] & 0xFF;
+			if (a != b) {
+				return a < b;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 准备数据，即区块头的规范编码
 	 *
 	 * @param nonce
 	 * @return
 	 */
 	private byte[] prepare(long nonce) {
+		if (this.getBlock().isLegacyEncoding()) {
+			return prepareLegacy(nonce);
+		}
+		BinaryWriter writer = new BinaryWriter(CanonicalCodec.HEADER_LENGTH);
+		CanonicalCodec.writeHeader(writer,
+				this.getBlock().getPreviousHash(),
+				this.getBlock().hashTransaction(),
+				this.getBlock().getTimeStamp(),
+				TAGET_BITS,
+				nonce);
+		return writer.toByteArray();
+	}
+
+	/**
+	 * 按旧格式准备数据，用于验证旧的区块
+	 *
+	 * @param nonce
+	 * @return
+	 */
+	private byte[] prepareLegacy(long nonce) {
 		byte[] prevBlockHashBytes = {};
 		if (StringUtils.isNoneBlank(this.getBlock().getPreviousHash())) {
 			prevBlockHashBytes = new BigInteger(this.getBlock().getPreviousHash(), 16).toByteArray();
@@ -115,7 +345,7 @@ public class ProofOfWork {
 	 */
 	public boolean validate() {
 		byte[] data = this.prepare(this.block.getNonce());
-		return new BigInteger(DigestUtils.sha256Hex(data), 16).compareTo(this.target) == -1;
+		return lessThan(DigestUtils.sha256(data), toTargetBytes(this.target));
 	}
 
 }
@@ -0,0 +1,131 @@
+package me.light.blockchain.core;
+
+import me.light.blockchain.util.BinaryWriter;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * 交易输入的签名hash计算(参考 BIP143)
+ * <p>
+ * 所有交易输入引用的输出点以及所有交易输出在创建时各计算一次hash，
+ * 每个交易输入的签名数据为：版本号(int32) + 输出点hash(32字节) + 当前输入的输出点(32字节 + int32)
+ * + 引用输出的公钥hash(varbytes) + 引用输出的金额(int64) + 交易输出hash(32字节) + 签名类型(int32)，
+ * 长度固定，与交易输入个数无关，n个输入的交易签名或验证总共只需要线性时间。
+ * <p>
+ * 使用这种方式的签名在DER编码的签名后追加一个字节的签名类型 {@link #SIGHASH_ALL}，
+ * 没有签名类型的旧签名仍然按 {@link Transaction#legacySignatureHash(int, byte[])} 验证。
+ *
+ * @author light.hao
+ * @create 2026-10-18-19:50
+ */
+public class SignatureHasher {
+
+	/**
+	 * 签名类型，签名覆盖所有的交易输入和交易输出
+	 */
+	public static final int SIGHASH_ALL = 0x01;
+
+	/**
+	 * 签名hash的版本号
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * 交易输入
+	 */
+	private final TransactionInput[] inputs;
+
+	/**
+	 * 所有交易输入引用的输出点的hash
+	 */
+	private final byte[] hashPrevouts;
+
+	/**
+	 * 所有交易输出的hash
+	 */
+	private final byte[] hashOutputs;
+
+	public SignatureHasher(Transaction transaction) {
+		this.inputs = transaction.getInputs();
+
+		MessageDigest prevoutsDigest = DigestUtils.getSha256Digest();
+		BinaryWriter writer = new BinaryWriter();
+		for (TransactionInput input : inputs) {
+			writer.reset();
+			writeOutpoint(writer, input);
+			writer.writeTo(prevoutsDigest);
+		}
+		this.hashPrevouts = prevoutsDigest.digest();
+
+		MessageDigest outputsDigest = DigestUtils.getSha256Digest();
+		for (TransactionOutput output : transaction.getOutputs()) {
+			writer.reset();
+			writer.writeInt64(output.getValue());
+			writer.writeVarBytes(output.getPublicKeyHash());
+			writer.writeTo(outputsDigest);
+		}
+		this.hashOutputs = outputsDigest.digest();
+	}
+
+	/**
+	 * 计算交易输入的签名hash
+	 *
+	 * @param inputIndex 交易输入下标
+	 * @param prevOutput 交易输入引用的交易输出
+	 * @return
+	 */
+	public byte[] hash(int inputIndex, TransactionOutput prevOutput) {
+		BinaryWriter writer = new BinaryWriter(160);
+		writer.writeInt32(VERSION);
+		writer.writeBytes(hashPrevouts);
+		writeOutpoint(writer, inputs[inputIndex]);
+		writer.writeVarBytes(prevOutput.getPublicKeyHash());
+		writer.writeInt64(prevOutput.getValue());
+		writer.writeBytes(hashOutputs);
+		writer.writeInt32(SIGHASH_ALL);
+		return DigestUtils.sha256(writer.toByteArray());
+	}
+
+	/**
+	 * 在DER编码的签名后追加签名类型
+	 *
+	 * @param derSignature
+	 * @return
+	 */
+	public static byte[] tagSignature(byte[] derSignature) {
+		byte[] signature = Arrays.copyOf(derSignature, derSignature.length + 1);
+		signature[derSignature.length] = (byte) SIGHASH_ALL;
+		return signature;
+	}
+
+	/**
+	 * 是否为带签名类型的签名，即DER编码的长度之后正好还有一个字节的签名类型
+	 *
+	 * @param signature
+	 * @return
+	 */
+	public static boolean isTaggedSignature(byte[] signature) {
+		return signature != null
+				&& signature.length >= 3
+				&& signature[0] == 0x30
+				&& (signature[1] & 0xFF) + 3 == signature.length
+				&& signature[signature.length - 1] == SIGHASH_ALL;
+	}
+
+	/**
+	 * 去掉签名类型，得到DER编码的签名
+	 *
+	 * @param signature
+	 * @return
+	 */
+	public static byte[] derSignature(byte[] signature) {
+		return Arrays.copyOf(signature, signature.length - 1);
+	}
+
+	private static void writeOutpoint(BinaryWriter writer, TransactionInput input) {
+		writer.writeBytes(input.getTransactionId());
+		writer.writeInt32(input.getTransactionOutputIndex());
+	}
+}
@@ -0,0 +1,277 @@
+package me.light.blockchain.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.codec.binary.Hex;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.jce.spec.ECParameterSpec;
+import org.bouncycastle.jce.spec.ECPublicKeySpec;
+import org.bouncycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 交易签名验证
+ * <p>
+ * 每个线程复用预先初始化好的 KeyFactory 和 Signature，BouncyCastleProvider 只注册一次。
+ * 验证一批交易时，每个交易输入的ECDSA验证作为独立的任务分发到线程池并行执行，
+ * 任意一个签名无效时立即返回并取消其余任务。
+ * <p>
+ * 验证通过的签名会被缓存，交易提交时已经验证过的签名在打包进区块时不需要再次进行椭圆曲线运算。
+ *
+ * @author light.hao
+ * @create 2026-10-18-19:05
+ */
+public class SignatureVerifier {
+
+	/**
+	 * 验证线程数，可以通过 -Dblockchain.verify.threads 配置，默认为CPU核数
+	 */
+	private static final int VERIFY_THREADS = Integer.getInteger("blockchain.verify.threads",
+			Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * 公钥的字节长度，0x04 + x(32字节) + y(32字节)
+	 */
+	private static final int PUBLIC_KEY_LENGTH = 65;
+
+	private static final ECParameterSpec EC_PARAMETERS;
+
+	private static final ThreadLocal<CryptoContext> CONTEXT = ThreadLocal.withInitial(CryptoContext::new);
+
+	/**
+	 * 签名缓存的大小，可以通过 -Dblockchain.cache.signatures 配置
+	 */
+	private static final long SIGNATURE_CACHE_SIZE = Long.getLong("blockchain.cache.signatures", 100000L);
+
+	/**
+	 * 验证通过的签名缓存，key 为 (签名数据, 公钥, 签名) 的hash，只缓存验证通过的结果
+	 */
+	private static final Cache<HashCode, Boolean> SIGNATURE_CACHE = CacheBuilder.newBuilder()
+			.maximumSize(SIGNATURE_CACHE_SIZE)
+			.recordStats()
+			.build();
+
+	static {
+		Security.addProvider(new BouncyCastleProvider());
+		EC_PARAMETERS = ECNamedCurveTable.getParameterSpec("secp256k1");
+	}
+
+	private volatile static ExecutorService executor;
+
+	private static ExecutorService getExecutor() {
+		if (executor == null) {
+			synchronized (SignatureVerifier.class) {
+				if (executor == null) {
+					executor = Executors.newFixedThreadPool(VERIFY_THREADS, new ThreadFactoryBuilder()
+							.setNameFormat("signature-verifier-%d")
+							.setDaemon(true)
+							.build());
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * 验证签名，验证通过过的签名直接从缓存返回
+	 *
+	 * @param message   签名的数据
+	 * @param publicKey 未压缩格式的公钥
+	 * @param signature DER格式的签名
+	 * @return 签名、公钥格式错误时同样返回false
+	 */
+	public static boolean verify(byte[] message, byte[] publicKey, byte[] signature) {
+		if (publicKey == null || publicKey.length != PUBLIC_KEY_LENGTH || signature == null) {
+			return false;
+		}
+		HashCode cacheKey = Hashing.sha256().newHasher()
+				.putInt(message.length).putBytes(message)
+				.putBytes(publicKey)
+				.putInt(signature.length).putBytes(signature)
+				.hash();
+		if (SIGNATURE_CACHE.getIfPresent(cacheKey) != null) {
+			return true;
+		}
+		boolean valid = verifySignature(message, publicKey, signature);
+		if (valid) {
+			SIGNATURE_CACHE.put(cacheKey, Boolean.TRUE);
+		}
+		return valid;
+	}
+
+	/**
+	 * 签名缓存的统计信息，包括命中率
+	 *
+	 * @return
+	 */
+	public static CacheStats getCacheStats() {
+		return SIGNATURE_CACHE.stats();
+	}
+
+	/**
+	 * 执行ECDSA签名验证
+	 *
+	 * @param message
+	 * @param publicKey
+	 * @param signature
+	 * @return
+	 */
+	private static boolean verifySignature(byte[] message, byte[] publicKey, byte[] signature) {
+		CryptoContext context = CONTEXT.get();
+		try {
+			BigInteger x = new BigInteger(1, Arrays.copyOfRange(publicKey, 1, 33));
+			BigInteger y = new BigInteger(1, Arrays.copyOfRange(publicKey, 33, 65));
+			ECPoint ecPoint = EC_PARAMETERS.getCurve().createPoint(x, y);
+			PublicKey key = context.keyFactory.generatePublic(new ECPublicKeySpec(ecPoint, EC_PARAMETERS));
+
+			context.signature.initVerify(key);
+			context.signature.update(message);
+			return context.signature.verify(signature);
+		} catch (InvalidKeyException | InvalidKeySpecException | SignatureException | IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * 并行验证一批交易中所有交易输入的签名
+	 *
+	 * @param transactions     需要验证的交易
+	 * @param prevTransactions 交易输入引用的交易，key为交易id
+	 * @return 任意一个签名无效时返回false
+	 * @throws Exception 找不到交易输入引用的交易时抛出
+	 */
+	public static boolean verifyTransactions(Transaction[] transactions, Map<String, Transaction> prevTransactions) throws Exception {
+		TransactionOutput[][] spentOutputs = new TransactionOutput[transactions.length][];
+		for (int t = 0; t < transactions.length; t++) {
+			Transaction transaction = transactions[t];
+			if (transaction.isCoinBase()) {
+				continue;
+			}
+			TransactionInput[] inputs = transaction.getInputs();
+			spentOutputs[t] = new TransactionOutput[inputs.length];
+			for (int i = 0; i < inputs.length; i++) {
+				TransactionInput input = inputs[i];
+				Transaction prevTransaction = prevTransactions.get(Hex.encodeHexString(input.getTransactionId()));
+				TransactionOutput[] prevOutputs = prevTransaction == null ? null : prevTransaction.getOutputs();
+				if (prevOutputs == null
+						|| input.getTransactionOutputIndex() < 0
+						|| input.getTransactionOutputIndex() >= prevOutputs.length) {
+					throw new Exception("ERROR: Previous transaction is not correct");
+				}
+				spentOutputs[t][i] = prevOutputs[input.getTransactionOutputIndex()];
+			}
+		}
+		return verifyTransactions(transactions, spentOutputs);
+	}
+
+	/**
+	 * 并行验证一批交易中所有交易输入的签名
+	 *
+	 * @param transactions 需要验证的交易
+	 * @param spentOutputs 每个交易输入引用的交易输出，spentOutputs[t][i] 对应第t个交易的第i个输入，coinbase交易对应null
+	 * @return 任意一个签名无效时返回false
+	 */
+	public static boolean verifyTransactions(Transaction[] transactions, TransactionOutput[][] spentOutputs) {
+		List<Callable<Boolean>> tasks = new ArrayList<>();
+		for (int t = 0; t < transactions.length; t++) {
+			Transaction transaction = transactions[t];
+			if (transaction.isCoinBase()) {
+				continue;
+			}
+			SignatureHasher signatureHasher = new SignatureHasher(transaction);
+			TransactionInput[] inputs = transaction.getInputs();
+			for (int i = 0; i < inputs.length; i++) {
+				TransactionInput input = inputs[i];
+				TransactionOutput prevOutput = spentOutputs[t][i];
+				int inputIndex = i;
+				if (SignatureHasher.isTaggedSignature(input.getSignature())) {
+					tasks.add(() -> verify(signatureHasher.hash(inputIndex, prevOutput),
+							input.getPublicKey(), SignatureHasher.derSignature(input.getSignature())));
+				} else {
+					tasks.add(() -> verify(transaction.legacySignatureHash(inputIndex, prevOutput.getPublicKeyHash()),
+							input.getPublicKey(), input.getSignature()));
+				}
+			}
+		}
+
+		if (tasks.size() <= 1 || VERIFY_THREADS <= 1) {
+			for (Callable<Boolean> task : tasks) {
+				try {
+					if (!task.call()) {
+						return false;
+					}
+				} catch (Exception e) {
+					throw new RuntimeException("Fail to verify signature ! ", e);
+				}
+			}
+			return true;
+		}
+
+		CompletionService<Boolean> completionService = new ExecutorCompletionService<>(getExecutor());
+		List<Future<Boolean>> futures = new ArrayList<>(tasks.size());
+		try {
+			for (Callable<Boolean> task : tasks) {
+				futures.add(completionService.submit(task));
+			}
+			for (int i = 0; i < tasks.size(); i++) {
+				if (!completionService.take().get()) {
+					return false;
+				}
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Signature verification interrupted ! ", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Fail to verify signature ! ", e.getCause());
+		} finally {
+			for (Future<Boolean> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * 线程独享的加密组件
+	 */
+	private static class CryptoContext {
+
+		private final KeyFactory keyFactory;
+
+		private final Signature signature;
+
+		private CryptoContext() {
+			try {
+				keyFactory = KeyFactory.getInstance("ECDSA", BouncyCastleProvider.PROVIDER_NAME);
+				signature = Signature.getInstance("SHA256withECDSA", BouncyCastleProvider.PROVIDER_NAME);
+			} catch (GeneralSecurityException e) {
+				throw new RuntimeException("Fail to init crypto context ! ", e);
+			}
+		}
+	}
+}
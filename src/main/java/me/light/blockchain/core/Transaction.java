@@ -1,6 +1,7 @@
 package me.light.blockchain.core;
 
 
+import me.light.blockchain.util.BinaryWriter;
 import me.light.blockchain.util.BitcoinAddressUtils;
 import me.light.blockchain.util.SerializeUtils;
 import me.light.blockchain.util.WalletUtils;
@@ -9,18 +10,12 @@ import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.bouncycastle.jcajce.provider.asymmetric.ec.BCECPrivateKey;
-import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.jce.spec.ECParameterSpec;
-import org.bouncycastle.jce.spec.ECPublicKeySpec;
-import org.bouncycastle.math.ec.ECPoint;
 
-import java.math.BigInteger;
-import java.security.KeyFactory;
-import java.security.PublicKey;
+import java.security.GeneralSecurityException;
 import java.security.Security;
 import java.security.Signature;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -32,7 +27,25 @@ import java.util.Map;
  */
 public class Transaction {
 
-	private static final int SUBSIDY = 10;
+	/**
+	 * 挖矿奖励
+	 */
+	public static final int SUBSIDY = 10;
+
+	/**
+	 * 线程独享的签名组件，避免每次签名都重新注册 provider 和创建 {@link Signature}
+	 */
+	private static final ThreadLocal<Signature> SIGNER = ThreadLocal.withInitial(() -> {
+		try {
+			return Signature.getInstance("SHA256withECDSA", BouncyCastleProvider.PROVIDER_NAME);
+		} catch (GeneralSecurityException e) {
+			throw new RuntimeException("Fail to init signature ! ", e);
+		}
+	});
+
+	static {
+		Security.addProvider(new BouncyCastleProvider());
+	}
 
 	/**
 	 * 交易id的hash值
@@ -50,43 +63,107 @@ public class Transaction {
 	private TransactionOutput[] outputs;
 
 	/**
-	 * 计算交易信息的Hash值
+	 * 是否为旧的 Kryo 格式，旧格式的交易按原来的序列化方式计算hash
+	 */
+	private transient boolean legacyEncoding;
+
+	/**
+	 * 是否已经冻结，冻结后调用setter会抛出异常，数组类型的getter返回副本
+	 */
+	private transient boolean frozen;
+
+	/**
+	 * 计算交易信息的Hash值，即不包含交易id的规范编码的 SHA-256
 	 *
 	 * @return
 	 */
 	public byte[] hash() {
+		if (legacyEncoding) {
+			return legacyHash();
+		}
+		return CanonicalCodec.hashTransaction(this);
+	}
+
+	/**
+	 * 按旧的 Kryo 格式计算交易信息的Hash值
+	 *
+	 * @return
+	 */
+	private byte[] legacyHash() {
+		return legacyHash(true);
+	}
+
+	/**
+	 * 按旧的 Kryo 格式计算交易信息的Hash值
+	 *
+	 * @param withSignatures 是否包含交易输入的签名，false 时按旧版本计算交易id的方式计算
+	 * @return
+	 */
+	private byte[] legacyHash(boolean withSignatures) {
 		// 使用序列化的方式对Transaction对象进行深度复制
 		byte[] serializeBytes = SerializeUtils.serialize(this);
 		Transaction copyTx = (Transaction) SerializeUtils.deserialize(serializeBytes);
-		copyTx.setTransactionId(new byte[]{});
-		return DigestUtils.sha256(SerializeUtils.serialize(copyTx));
+		// 旧版本的coinbase交易id是在交易id为null时计算的
+		copyTx.setTransactionId(withSignatures || !copyTx.isCoinBase() ? new byte[]{} : null);
+		if (!withSignatures) {
+			for (TransactionInput input : copyTx.inputs) {
+				input.setSignature(null);
+			}
+		}
+		return DigestUtils.sha256(SerializeUtils.serializeWithClassNames(copyTx));
+	}
+
+	/**
+	 * 计算交易id，即清空所有交易输入的签名后的交易hash
+	 * <p>
+	 * 交易id在签名之前确定，交易中签名以外的内容都被交易id覆盖，验证交易时要求交易id与这里的计算结果一致
+	 *
+	 * @return
+	 */
+	public byte[] computeTransactionId() {
+		if (legacyEncoding) {
+			return legacyHash(false);
+		}
+		return CanonicalCodec.hashTransactionId(this);
 	}
 
 
 	public byte[] getTransactionId() {
-		return transactionId;
+		return frozen ? ArrayUtils.clone(transactionId) : transactionId;
 	}
 
 	public void setTransactionId(byte[] transactionId) {
+		checkNotFrozen();
 		this.transactionId = transactionId;
 	}
 
 	public TransactionInput[] getInputs() {
-		return inputs;
+		return frozen ? ArrayUtils.clone(inputs) : inputs;
 	}
 
 	public void setInputs(TransactionInput[] inputs) {
+		checkNotFrozen();
 		this.inputs = inputs;
 	}
 
 	public TransactionOutput[] getOutputs() {
-		return outputs;
+		return frozen ? ArrayUtils.clone(outputs) : outputs;
 	}
 
 	public void setOutputs(TransactionOutput[] outputs) {
+		checkNotFrozen();
 		this.outputs = outputs;
 	}
 
+	public boolean isLegacyEncoding() {
+		return legacyEncoding;
+	}
+
+	public void setLegacyEncoding(boolean legacyEncoding) {
+		checkNotFrozen();
+		this.legacyEncoding = legacyEncoding;
+	}
+
 
 	public Transaction() {
 	}
@@ -97,8 +174,36 @@ public class Transaction {
 		this.outputs = outputs;
 	}
 
+	/**
+	 * 冻结交易以及交易中的所有输入和输出，之后调用任何setter都会抛出异常
+	 *
+	 * @return
+	 */
+	public Transaction freeze() {
+		if (!frozen) {
+			for (TransactionInput input : inputs) {
+				input.freeze();
+			}
+			for (TransactionOutput output : outputs) {
+				output.freeze();
+			}
+			this.frozen = true;
+		}
+		return this;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen) {
+			throw new IllegalStateException("Transaction is frozen ! transactionId=" + Hex.encodeHexString(transactionId));
+		}
+	}
+
 	private void setTransactionId() {
-		this.setTransactionId(DigestUtils.sha256(SerializeUtils.serialize(this)));
+		this.setTransactionId(this.computeTransactionId());
 	}
 
 	/**
@@ -129,15 +234,41 @@ public class Transaction {
 		return transaction;
 	}
 
+	/**
+	 * 在coinbase交易的解锁脚本数据后追加区块高度和额外nonce，生成新的coinbase交易
+	 * <p>
+	 * 加入区块高度保证不同区块的coinbase交易id不重复，额外nonce用于在 nonce 范围耗尽后改变默克尔树根
+	 *
+	 * @param height     区块高度
+	 * @param extraNonce 额外nonce
+	 * @return
+	 */
+	public Transaction withExtraNonce(long height, long extraNonce) {
+		if (!this.isCoinBase()) {
+			throw new IllegalStateException("Extra nonce only applies to coinbase transaction ! ");
+		}
+		TransactionInput coinbaseInput = inputs[0];
+		byte[] data = new BinaryWriter()
+				.writeBytes(coinbaseInput.getPublicKey())
+				.writeVarInt(height)
+				.writeInt64(extraNonce)
+				.toByteArray();
+		TransactionInput input = new TransactionInput(coinbaseInput.getTransactionId(),
+				coinbaseInput.getTransactionOutputIndex(), null, data);
+		Transaction transaction = new Transaction(null, new TransactionInput[]{input}, outputs.clone());
+		transaction.setTransactionId();
+		return transaction;
+	}
+
 	/**
 	 * 判断是不是coinbase交易
 	 *
 	 * @return
 	 */
 	public boolean isCoinBase() {
-		return this.getInputs().length == 1
-				&& this.getInputs()[0].getTransactionId().length == 0
-				&& this.getInputs()[0].getTransactionOutputIndex() == -1;
+		return inputs.length == 1
+				&& inputs[0].getTransactionId().length == 0
+				&& inputs[0].getTransactionOutputIndex() == -1;
 	}
 
 
@@ -151,13 +282,49 @@ public class Transaction {
 	 * @return
 	 */
 	public static Transaction newTransaction(String from, String to, int amount, Blockchain blockchain) throws Exception {
+		return newTransaction(from, to, amount, blockchain, null);
+	}
+
+	/**
+	 * 创建一笔交易，不使用已经被交易池中的交易花费的UTXO，可以花费交易池中未确认的交易输出
+	 *
+	 * @param from       支付地址
+	 * @param to         收款地址
+	 * @param amount     交易金额
+	 * @param blockchain 区块链
+	 * @param mempool    交易池，可以为null
+	 * @return
+	 */
+	public static Transaction newTransaction(String from, String to, int amount, Blockchain blockchain,
+											 Mempool mempool) throws Exception {
+		return newTransaction(from, to, amount, blockchain, mempool, CoinSelector.DEFAULT);
+	}
+
+	/**
+	 * 创建一笔交易，使用指定的策略选择交易输入
+	 *
+	 * @param from       支付地址
+	 * @param to         收款地址
+	 * @param amount     交易金额，必须大于0
+	 * @param blockchain 区块链
+	 * @param mempool    交易池，可以为null
+	 * @param selector   选择交易输入的策略
+	 * @return
+	 */
+	public static Transaction newTransaction(String from, String to, int amount, Blockchain blockchain,
+											 Mempool mempool, CoinSelector selector) throws Exception {
+		if (amount <= 0) {
+			throw new Exception("ERROR: Amount must be positive ! amount=" + amount);
+		}
 
 		//获取钱包
 		Wallet wallet = WalletUtils.getInstance().getWallet(from);
 		byte[] publicKey = wallet.getPublicKey();
 		byte[] publicKeyHash = BitcoinAddressUtils.ripeMD160Hash(publicKey);
 
-		SpendableOutputResult outputResult = blockchain.findSpendableOutputs(publicKeyHash, amount);
+		SpendableOutputResult outputResult = new UTXOSet(blockchain).findSpendableOutputs(publicKeyHash, amount,
+				utxo -> mempool == null || !mempool.isSpent(utxo.getTransactionId(), utxo.getIndex()), selector,
+				mempool == null ? Collections.emptyList() : mempool.getUnspentOutputs(publicKeyHash));
 		int accumulated = outputResult.getAccumulated();
 		Map<String, int[]> unspentOutputs = outputResult.getUnspentOutputs();
 
@@ -174,7 +341,7 @@ public class Transaction {
 			int[] outputIds = entry.getValue();
 			byte[] transactionId = Hex.decodeHex(transactionIdStr.toCharArray());
 			for (int outputIndex : outputIds) {
-				inputs = ArrayUtils.add(inputs, new TransactionInput(transactionId, outputIndex, null, publicKeyHash));
+				inputs = ArrayUtils.add(inputs, new TransactionInput(transactionId, outputIndex, null, publicKey));
 			}
 		}
 
@@ -185,10 +352,10 @@ public class Transaction {
 		}
 
 		Transaction transaction = new Transaction(null, inputs, outputs);
-		transaction.setTransactionId(transaction.hash());
+		transaction.setTransactionId();
 
 		//进行交易签名
-		blockchain.signTransaction(transaction, wallet.getPrivateKey());
+		blockchain.signTransaction(transaction, wallet.getPrivateKey(), mempool);
 
 		return transaction;
 	}
@@ -213,36 +380,21 @@ public class Transaction {
 			}
 		}
 
-		//创建用于签名的交易数据副本
-		Transaction transaction4Sign = this.trimmedCopy();
-
-		Security.addProvider(new BouncyCastleProvider());
-		Signature ecdsaSign = Signature.getInstance("SHA256withECDSA", BouncyCastleProvider.PROVIDER_NAME);
+		Signature ecdsaSign = SIGNER.get();
 		ecdsaSign.initSign(privateKey);
 
-		for (int i = 0; i < transaction4Sign.getInputs().length; i++) {
-			TransactionInput input4Sign = transaction4Sign.getInputs()[i];
+		SignatureHasher signatureHasher = new SignatureHasher(this);
+		for (int i = 0; i < inputs.length; i++) {
+			TransactionInput input = inputs[i];
 			//获取交易输入TransactionId对应的交易数据
-			Transaction transaction = transactions.get(Hex.encodeHexString(input4Sign.getTransactionId()));
+			Transaction transaction = transactions.get(Hex.encodeHexString(input.getTransactionId()));
 			//获取交易输入所对应的上一笔交易中的交易输出
-			TransactionOutput output4Sgin = transaction.getOutputs()[input4Sign.getTransactionOutputIndex()];
-			input4Sign.setPublicKey(output4Sgin.getPublicKeyHash());
-			input4Sign.setSignature(null);
-			//得到签名的数据，即交易ID
-			transaction4Sign.setTransactionId(transaction4Sign.hash());
-			input4Sign.setPublicKey(null);
-
-			//对整个交易信息进行签名，即对交易ID进行签名
-			ecdsaSign.update(transaction4Sign.getTransactionId());
-			byte[] signature = ecdsaSign.sign();
+			TransactionOutput output4Sign = transaction.getOutputs()[input.getTransactionOutputIndex()];
 
-
-			// 将整个交易数据的签名赋值给交易输入，因为交易输入需要包含整个交易信息的签名
-			// 注意是将得到的签名赋值给原交易信息中的交易输入
-			this.getInputs()[i].setSignature(signature);
+			//对交易输入的签名hash进行签名，并赋值给原交易信息中的交易输入
+			ecdsaSign.update(signatureHasher.hash(i, output4Sign));
+			input.setSignature(SignatureHasher.tagSignature(ecdsaSign.sign()));
 		}
-
-
 	}
 
 	/**
@@ -256,50 +408,24 @@ public class Transaction {
 		if (this.isCoinBase()) {
 			return true;
 		}
+		return SignatureVerifier.verifyTransactions(new Transaction[]{this}, prevTxMap);
+	}
 
-		// 再次验证一下交易信息中的交易输入是否正确，也就是能否查找对应的交易数据
-		for (TransactionInput txInput : this.getInputs()) {
-			if (prevTxMap.get(Hex.encodeHexString(txInput.getTransactionId())) == null) {
-				throw new Exception("ERROR: Previous transaction is not correct");
-			}
-		}
-
-		// 创建用于签名验证的交易信息的副本
-		Transaction txCopy = this.trimmedCopy();
-
-		Security.addProvider(new BouncyCastleProvider());
-		ECParameterSpec ecParameters = ECNamedCurveTable.getParameterSpec("secp256k1");
-		KeyFactory keyFactory = KeyFactory.getInstance("ECDSA", BouncyCastleProvider.PROVIDER_NAME);
-		Signature ecdsaVerify = Signature.getInstance("SHA256withECDSA", BouncyCastleProvider.PROVIDER_NAME);
-
-		for (int i = 0; i < this.getInputs().length; i++) {
-			TransactionInput txInput = this.getInputs()[i];
-			// 获取交易输入TxID对应的交易数据
-			Transaction prevTx = prevTxMap.get(Hex.encodeHexString(txInput.getTransactionId()));
-			// 获取交易输入所对应的上一笔交易中的交易输出
-			TransactionOutput prevTxOutput = prevTx.getOutputs()[txInput.getTransactionOutputIndex()];
-
-			TransactionInput txInputCopy = txCopy.getInputs()[i];
-			txInputCopy.setSignature(null);
-			txInputCopy.setPublicKey(prevTxOutput.getPublicKeyHash());
-			// 得到要签名的数据，即交易ID
-			txCopy.setTransactionId(txCopy.hash());
-			txInputCopy.setPublicKey(null);
-
-			// 使用椭圆曲线 x,y 点去生成公钥Key
-			BigInteger x = new BigInteger(1, Arrays.copyOfRange(txInput.getPublicKey(), 1, 33));
-			BigInteger y = new BigInteger(1, Arrays.copyOfRange(txInput.getPublicKey(), 33, 65));
-			ECPoint ecPoint = ecParameters.getCurve().createPoint(x, y);
-
-			ECPublicKeySpec keySpec = new ECPublicKeySpec(ecPoint, ecParameters);
-			PublicKey publicKey = keyFactory.generatePublic(keySpec);
-			ecdsaVerify.initVerify(publicKey);
-			ecdsaVerify.update(txCopy.getTransactionId());
-			if (!ecdsaVerify.verify(txInput.getSignature())) {
-				return false;
-			}
-		}
-		return true;
+	/**
+	 * 按旧的方式计算交易输入的签名hash，用于验证没有签名类型的旧签名
+	 * <p>
+	 * 在交易副本中清空所有交易输入的签名和公钥，只把当前交易输入的公钥替换为引用的交易输出的公钥hash，
+	 * 副本的hash值即为这个交易输入需要签名的数据，每个交易输入都要复制并编码整个交易。
+	 * 新的签名使用 {@link SignatureHasher}
+	 *
+	 * @param inputIndex        交易输入下标
+	 * @param prevPublicKeyHash 交易输入引用的交易输出的公钥hash
+	 * @return
+	 */
+	public byte[] legacySignatureHash(int inputIndex, byte[] prevPublicKeyHash) {
+		Transaction copy = this.trimmedCopy();
+		copy.getInputs()[inputIndex].setPublicKey(prevPublicKeyHash);
+		return copy.hash();
 	}
 
 
@@ -309,19 +435,21 @@ public class Transaction {
 	 * @return
 	 */
 	private Transaction trimmedCopy() {
-		TransactionInput[] inputs = new TransactionInput[this.getInputs().length];
-		for (int i = 0; i < this.getInputs().length; i++) {
-			TransactionInput input = this.getInputs()[i];
-			inputs[i] = new TransactionInput(input.getTransactionId(), input.getTransactionOutputIndex(), null, null);
+		TransactionInput[] copyInputs = new TransactionInput[inputs.length];
+		for (int i = 0; i < inputs.length; i++) {
+			TransactionInput input = inputs[i];
+			copyInputs[i] = new TransactionInput(input.getTransactionId(), input.getTransactionOutputIndex(), null, null);
 		}
 
-		TransactionOutput[] outputs = new TransactionOutput[this.getOutputs().length];
-		for (int i = 0; i < this.getOutputs().length; i++) {
-			TransactionOutput output = this.getOutputs()[i];
-			outputs[i] = new TransactionOutput(output.getValue(), output.getPublicKeyHash());
+		TransactionOutput[] copyOutputs = new TransactionOutput[outputs.length];
+		for (int i = 0; i < outputs.length; i++) {
+			TransactionOutput output = outputs[i];
+			copyOutputs[i] = new TransactionOutput(output.getValue(), output.getPublicKeyHash());
 		}
 
-		return new Transaction(this.getTransactionId(), inputs, outputs);
+		Transaction copy = new Transaction(this.getTransactionId(), copyInputs, copyOutputs);
+		copy.setLegacyEncoding(this.legacyEncoding);
+		return copy;
 	}
 
 
@@ -1,6 +1,8 @@
 package me.light.blockchain.core;
 
 import me.light.blockchain.util.BitcoinAddressUtils;
+import org.apache.commons.lang3.ArrayUtils;
+
 import java.util.Arrays;
 
 /**
@@ -31,12 +33,18 @@ public class TransactionInput {
 	 */
 	private byte[] publicKey;
 
+	/**
+	 * 是否已经冻结，冻结后调用setter会抛出异常，数组类型的getter返回副本
+	 */
+	private transient boolean frozen;
+
 
 	public byte[] getTransactionId() {
-		return transactionId;
+		return frozen ? ArrayUtils.clone(transactionId) : transactionId;
 	}
 
 	public void setTransactionId(byte[] transactionId) {
+		checkNotFrozen();
 		this.transactionId = transactionId;
 	}
 
@@ -45,22 +53,25 @@ public class TransactionInput {
 	}
 
 	public void setTransactionOutputIndex(int transactionOutputIndex) {
+		checkNotFrozen();
 		this.transactionOutputIndex = transactionOutputIndex;
 	}
 
 	public byte[] getSignature() {
-		return signature;
+		return frozen ? ArrayUtils.clone(signature) : signature;
 	}
 
 	public void setSignature(byte[] signature) {
+		checkNotFrozen();
 		this.signature = signature;
 	}
 
 	public byte[] getPublicKey() {
-		return publicKey;
+		return frozen ? ArrayUtils.clone(publicKey) : publicKey;
 	}
 
 	public void setPublicKey(byte[] publicKey) {
+		checkNotFrozen();
 		this.publicKey = publicKey;
 	}
 
@@ -74,6 +85,26 @@ public class TransactionInput {
 		this.publicKey = publicKey;
 	}
 
+	/**
+	 * 冻结交易输入，之后调用任何setter都会抛出异常
+	 *
+	 * @return
+	 */
+	public TransactionInput freeze() {
+		this.frozen = true;
+		return this;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen) {
+			throw new IllegalStateException("Transaction input is frozen ! ");
+		}
+	}
+
 	/**
 	 * 检查公钥hash是否用于交易输入
 	 *
@@ -81,7 +112,7 @@ public class TransactionInput {
 	 * @return
 	 */
 	public boolean usesKey(byte[] publicKeyHash) {
-		byte[] lockingHash = BitcoinAddressUtils.ripeMD160Hash(this.getPublicKey());
+		byte[] lockingHash = BitcoinAddressUtils.ripeMD160Hash(publicKey);
 		return Arrays.equals(lockingHash, publicKeyHash);
 	}
 }
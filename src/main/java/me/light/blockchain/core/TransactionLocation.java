@@ -0,0 +1,44 @@
+package me.light.blockchain.core;
+
+/**
+ * 交易在区块链中的位置
+ *
+ * @author light.hao
+ * @create 2026-10-18-10:20
+ */
+public class TransactionLocation {
+
+	/**
+	 * 交易所在区块的hash值
+	 */
+	private String blockHash;
+
+	/**
+	 * 交易在区块中的下标
+	 */
+	private int position;
+
+	public String getBlockHash() {
+		return blockHash;
+	}
+
+	public void setBlockHash(String blockHash) {
+		this.blockHash = blockHash;
+	}
+
+	public int getPosition() {
+		return position;
+	}
+
+	public void setPosition(int position) {
+		this.position = position;
+	}
+
+	public TransactionLocation() {
+	}
+
+	public TransactionLocation(String blockHash, int position) {
+		this.blockHash = blockHash;
+		this.position = position;
+	}
+}
@@ -1,6 +1,8 @@
 package me.light.blockchain.core;
 
 import me.light.blockchain.util.Base58Check;
+import me.light.blockchain.util.BitcoinAddressUtils;
+import org.apache.commons.lang3.ArrayUtils;
 
 import java.util.Arrays;
 
@@ -12,6 +14,21 @@ import java.util.Arrays;
  */
 public class TransactionOutput {
 
+	/**
+	 * 公钥hash的字节长度，即 RIPEMD160 的输出长度
+	 */
+	private static final int PUBLIC_KEY_HASH_LENGTH = 20;
+
+	/**
+	 * 地址校验码的字节长度
+	 */
+	private static final int CHECKSUM_LENGTH = 4;
+
+	/**
+	 * 地址的版本号
+	 */
+	private static final byte ADDRESS_VERSION = 0;
+
 	/**
 	 * 数值
 	 */
@@ -22,20 +39,27 @@ public class TransactionOutput {
 	 */
 	private byte[] publicKeyHash;
 
+	/**
+	 * 是否已经冻结，冻结后调用setter会抛出异常，数组类型的getter返回副本
+	 */
+	private transient boolean frozen;
+
 
 	public int getValue() {
 		return value;
 	}
 
 	public void setValue(int value) {
+		checkNotFrozen();
 		this.value = value;
 	}
 
 	public byte[] getPublicKeyHash() {
-		return publicKeyHash;
+		return frozen ? ArrayUtils.clone(publicKeyHash) : publicKeyHash;
 	}
 
 	public void setPublicKeyHash(byte[] publicKeyHash) {
+		checkNotFrozen();
 		this.publicKeyHash = publicKeyHash;
 	}
 
@@ -55,11 +79,51 @@ public class TransactionOutput {
 	 * @return
 	 */
 	public static TransactionOutput newTransactionOutput(int value, String address) {
-		byte[] versionedPayload = Base58Check.base58ToRawBytes(address);
+		// 去掉版本号和校验码，只保留公钥hash
+		byte[] versionedPayload = Base58Check.base58ToBytes(address);
 		byte[] publicKeyHash = Arrays.copyOfRange(versionedPayload, 1, versionedPayload.length);
 		return new TransactionOutput(value, publicKeyHash);
 	}
 
+	/**
+	 * 冻结交易输出，之后调用任何setter都会抛出异常
+	 *
+	 * @return
+	 */
+	public TransactionOutput freeze() {
+		this.frozen = true;
+		return this;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	private void checkNotFrozen() {
+		if (frozen) {
+			throw new IllegalStateException("Transaction output is frozen ! ");
+		}
+	}
+
+	/**
+	 * 锁定交易输出的钱包公钥hash，用于地址索引、地址余额以及所有权判断
+	 * <p>
+	 * 旧版本创建交易输出时没有去掉地址的校验码，公钥hash后面多了4个字节，这里去掉校验码。
+	 * 交易输出本身保持不变，交易id和签名仍然基于原始的公钥hash计算。
+	 *
+	 * @return
+	 */
+	public byte[] getOwnerPublicKeyHash() {
+		byte[] publicKeyHash = this.getPublicKeyHash();
+		if (publicKeyHash == null || publicKeyHash.length != PUBLIC_KEY_HASH_LENGTH + CHECKSUM_LENGTH) {
+			return publicKeyHash;
+		}
+		byte[] hash = Arrays.copyOf(publicKeyHash, PUBLIC_KEY_HASH_LENGTH);
+		byte[] checksum = BitcoinAddressUtils.checksum(ArrayUtils.insert(0, hash, ADDRESS_VERSION));
+		return Arrays.equals(checksum, Arrays.copyOfRange(publicKeyHash, PUBLIC_KEY_HASH_LENGTH, publicKeyHash.length))
+				? hash : publicKeyHash;
+	}
+
 	/**
 	 * 检查交易输出是否能够使用指定的公钥
 	 *
@@ -67,7 +131,7 @@ public class TransactionOutput {
 	 * @return
 	 */
 	public boolean isLockedWithKey(byte[] publicKeyHash) {
-		return Arrays.equals(this.getPublicKeyHash(), publicKeyHash);
+		return Arrays.equals(this.getOwnerPublicKeyHash(), publicKeyHash);
 	}
 
 
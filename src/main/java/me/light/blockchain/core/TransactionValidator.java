@@ -0,0 +1,184 @@
+package me.light.blockchain.core;
+
+import org.apache.commons.codec.binary.Hex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 交易验证
+ * <p>
+ * 交易输入引用的交易输出通过UTXO池点查获得，验证代价只与交易输入个数有关，与区块链长度无关。
+ * 一批交易(例如一个区块中的交易)按顺序验证，后面的交易可以花费前面交易的输出，
+ * 同一个输出点在整批交易中只能被花费一次。验证内容包括：
+ * 1.交易id等于 {@link Transaction#computeTransactionId()}，交易id是UTXO池、交易索引和交易池的key，不能由交易自己指定；
+ * 2.非coinbase交易至少有一个交易输入，交易输入引用的输出存在并且未花费；
+ * 3.没有双花；
+ * 4.交易输入金额之和不小于交易输出金额之和，coinbase交易的输出不超过奖励加上手续费；
+ * 5.非coinbase交易的id没有与未花费的交易重复；
+ * 6.所有交易输入的签名有效。
+ * <p>
+ * coinbase交易在挖矿时还会加入区块高度和额外nonce，最终的交易id在 {@link Blockchain#addBlock(Block)} 中再次检查。
+ * <p>
+ * 每个实例只用于验证一批交易。
+ *
+ * @author light.hao
+ * @create 2026-10-18-20:30
+ */
+public class TransactionValidator {
+
+	private final UTXOSet utxoSet;
+
+	/**
+	 * 这批交易中已经花费的输出点，格式为 交易id:输出下标
+	 */
+	private final Set<String> spentOutpoints = new HashSet<>();
+
+	/**
+	 * 这批交易中新创建的交易输出
+	 */
+	private final Map<String, TransactionOutput[]> createdOutputs = new HashMap<>();
+
+	/**
+	 * 未确认交易的输出，交易池中的交易可以花费其他未确认交易的输出
+	 */
+	private final Function<String, TransactionOutput[]> unconfirmedOutputs;
+
+	/**
+	 * 这批交易的手续费之和
+	 */
+	private long fees;
+
+	public TransactionValidator(UTXOSet utxoSet) {
+		this(utxoSet, transactionId -> null);
+	}
+
+	public TransactionValidator(UTXOSet utxoSet, Function<String, TransactionOutput[]> unconfirmedOutputs) {
+		this.utxoSet = utxoSet;
+		this.unconfirmedOutputs = unconfirmedOutputs;
+	}
+
+	public long getFees() {
+		return fees;
+	}
+
+	/**
+	 * 按顺序验证一批交易
+	 *
+	 * @param transactions
+	 * @throws Exception 交易无效时抛出，异常信息为无效的原因
+	 */
+	public void validate(Transaction[] transactions) throws Exception {
+		TransactionOutput[][] spentOutputs = new TransactionOutput[transactions.length][];
+		Transaction coinbase = null;
+
+		for (int t = 0; t < transactions.length; t++) {
+			Transaction transaction = transactions[t];
+			String transactionId = Hex.encodeHexString(transaction.getTransactionId());
+			if (!Arrays.equals(transaction.getTransactionId(), transaction.computeTransactionId())) {
+				throw new Exception("ERROR: Transaction id does not match transaction data ! transactionId=" + transactionId);
+			}
+			if (!transaction.isCoinBase() && transaction.getInputs().length == 0) {
+				throw new Exception("ERROR: Transaction has no inputs ! transactionId=" + transactionId);
+			}
+			// coinbase交易的id在挖矿时加入区块高度后才最终确定，不在这里检查
+			if (!transaction.isCoinBase()
+					&& (createdOutputs.containsKey(transactionId) || utxoSet.hasUTXOs(transactionId))) {
+				throw new Exception("ERROR: Duplicate transaction ! transactionId=" + transactionId);
+			}
+			long outputValue = sumOutputs(transaction);
+
+			if (transaction.isCoinBase()) {
+				if (coinbase != null) {
+					throw new Exception("ERROR: More than one coinbase transaction ! transactionId=" + transactionId);
+				}
+				coinbase = transaction;
+			} else {
+				spentOutputs[t] = spendInputs(transaction);
+				long inputValue = 0;
+				for (TransactionOutput spentOutput : spentOutputs[t]) {
+					inputValue += spentOutput.getValue();
+				}
+				if (inputValue < outputValue) {
+					throw new Exception("ERROR: Outputs exceed inputs ! transactionId=" + transactionId
+							+ ", inputValue=" + inputValue + ", outputValue=" + outputValue);
+				}
+				fees += inputValue - outputValue;
+			}
+			createdOutputs.put(transactionId, transaction.getOutputs());
+		}
+
+		if (coinbase != null && sumOutputs(coinbase) > Transaction.SUBSIDY + fees) {
+			throw new Exception("ERROR: Coinbase exceeds subsidy and fees ! transactionId="
+					+ Hex.encodeHexString(coinbase.getTransactionId()));
+		}
+
+		if (!SignatureVerifier.verifyTransactions(transactions, spentOutputs)) {
+			throw new Exception("ERROR: Invalid signature ! ");
+		}
+	}
+
+	/**
+	 * 花费交易的所有输入，返回每个输入引用的交易输出
+	 *
+	 * @param transaction
+	 * @return
+	 * @throws Exception 输出不存在、已经花费、没有锁定到输入的公钥或者被这批交易中的其他输入花费时抛出
+	 */
+	private TransactionOutput[] spendInputs(Transaction transaction) throws Exception {
+		TransactionInput[] inputs = transaction.getInputs();
+		TransactionOutput[] spent = new TransactionOutput[inputs.length];
+		for (int i = 0; i < spent.length; i++) {
+			TransactionInput input = inputs[i];
+			String prevTransactionId = Hex.encodeHexString(input.getTransactionId());
+			int index = input.getTransactionOutputIndex();
+			String outpoint = prevTransactionId + ":" + index;
+			if (!spentOutpoints.add(outpoint)) {
+				throw new Exception("ERROR: Double spend ! outpoint=" + outpoint);
+			}
+
+			TransactionOutput output;
+			TransactionOutput[] created = createdOutputs.get(prevTransactionId);
+			if (created == null) {
+				created = unconfirmedOutputs.apply(prevTransactionId);
+			}
+			if (created != null) {
+				output = index >= 0 && index < created.length ? created[index] : null;
+			} else {
+				output = utxoSet.findUTXO(prevTransactionId, index);
+			}
+			if (output == null) {
+				throw new Exception("ERROR: Missing or spent output ! outpoint=" + outpoint);
+			}
+			// 签名只能证明交易输入中的公钥签过名，还需要确认这个公钥就是交易输出锁定的公钥
+			if (!input.usesKey(output.getOwnerPublicKeyHash())) {
+				throw new Exception("ERROR: Output is not locked to the input key ! outpoint=" + outpoint);
+			}
+			spent[i] = output;
+		}
+		return spent;
+	}
+
+	/**
+	 * 交易输出金额之和
+	 *
+	 * @param transaction
+	 * @return
+	 * @throws Exception 存在负数金额时抛出
+	 */
+	private static long sumOutputs(Transaction transaction) throws Exception {
+		long value = 0;
+		for (TransactionOutput output : transaction.getOutputs()) {
+			if (output.getValue() < 0) {
+				throw new Exception("ERROR: Negative output value ! transactionId="
+						+ Hex.encodeHexString(transaction.getTransactionId()));
+			}
+			value += output.getValue();
+		}
+		return value;
+	}
+}
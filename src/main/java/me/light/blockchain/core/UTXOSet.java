@@ -3,13 +3,18 @@ package me.light.blockchain.core;
 import com.google.common.collect.Maps;
 import lombok.Synchronized;
 import me.light.blockchain.util.RocksDBUtils;
-import me.light.blockchain.util.SerializeUtils;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.rocksdb.WriteBatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 /**
  * 未被花费的交易输出池
@@ -21,6 +26,16 @@ public class UTXOSet {
 
 	private final Logger logger = LoggerFactory.getLogger(UTXOSet.class);
 
+	/**
+	 * 重建UTXO池时每次从高度索引中读取的区块个数
+	 */
+	private static final int REINDEX_HEIGHT_WINDOW = 1000;
+
+	/**
+	 * 重建UTXO池时输出进度的时间间隔（毫秒）
+	 */
+	private static final long REINDEX_PROGRESS_INTERVAL = 10_000L;
+
 	private Blockchain blockchain;
 
 	public Blockchain getBlockchain() {
@@ -40,77 +55,180 @@ public class UTXOSet {
 
 	/**
 	 * 重建UTXO池索引
+	 * <p>
+	 * 按高度从创世区块开始顺序读取区块，只遍历一次区块链，花费和新增的交易输出都先写入 {@link CoinsCache}，
+	 * 缓存的内存占用超过上限时整体刷盘，堆内存占用与区块链大小无关。完成后写入 chainstate 的格式版本。
 	 */
 	@Synchronized
 	public void reIndex() throws Exception {
-		logger.info("start to reIndex UTXO set");
-		//先清空
+		long tipHeight = blockchain.getHeight();
+		logger.info("start to reIndex UTXO set, blocks={}", tipHeight + 1);
+		//先清空，缓存中还没有刷盘的修改一起丢弃
+		CoinsCache coinsCache = CoinsCache.getInstance();
+		coinsCache.clear();
 		RocksDBUtils.getInstance().cleanChainStateBucket();
-		Map<String, TransactionOutput[]> allUTXOs = blockchain.findAllUTXOs();
-		for (Map.Entry<String, TransactionOutput[]> entry : allUTXOs.entrySet()) {
-			RocksDBUtils.getInstance().putUTXOs(entry.getKey(), entry.getValue());
+
+		long startTime = System.currentTimeMillis();
+		long lastReportTime = startTime;
+		int flushCount = 0;
+		for (long fromHeight = 0; fromHeight <= tipHeight; fromHeight += REINDEX_HEIGHT_WINDOW) {
+			long toHeight = Math.min(tipHeight, fromHeight + REINDEX_HEIGHT_WINDOW - 1);
+			long height = fromHeight;
+			for (String blockHash : RocksDBUtils.getInstance().getBlockHashesByHeight(fromHeight, toHeight)) {
+				this.connect(RocksDBUtils.getInstance().getBlockWithoutCache(blockHash), height++);
+				if (coinsCache.isFull()) {
+					coinsCache.flush();
+					flushCount++;
+				}
+			}
+			if (height != toHeight + 1) {
+				throw new RuntimeException("Fail to reIndex UTXO set ! height index is incomplete ! height=" + height);
+			}
+
+			long now = System.currentTimeMillis();
+			if (now - lastReportTime >= REINDEX_PROGRESS_INTERVAL) {
+				lastReportTime = now;
+				logger.info("ReIndex UTXO set progress, height={}/{}, progress={}%, blocks/s={}, cacheSize={}, flushes={}",
+						toHeight, tipHeight, (toHeight + 1) * 100 / (tipHeight + 1),
+						(toHeight + 1) * 1000 / Math.max(1, now - startTime), coinsCache.getSize(), flushCount);
+			}
+		}
+
+		try (WriteBatch batch = new WriteBatch()) {
+			coinsCache.writeTo(batch);
+			RocksDBUtils.getInstance().putChainStateVersion(batch, true);
+			RocksDBUtils.getInstance().writeBatch(batch);
 		}
-		logger.info("ReIndex UTXO set finished ! ");
+		coinsCache.clear();
+		logger.info("ReIndex UTXO set finished ! blocks={}, flushes={}, elapsed={}ms", tipHeight + 1, flushCount + 1,
+				System.currentTimeMillis() - startTime);
 	}
 
 
 	/**
-	 * 寻找能够交易的输出
+	 * 寻找能够交易的输出，只遍历该地址自己的UTXO
 	 *
 	 * @param publicKeyHash 钱包的公钥hash
 	 * @param amount        花费金额
 	 * @return
 	 */
 	public SpendableOutputResult findSpendableOutputs(byte[] publicKeyHash, int amount) {
-		Map<String, int[]> unspentOuts = Maps.newHashMap();
-		int accumulated = 0;
-		Map<String, byte[]> chainstateBucket = RocksDBUtils.getInstance().getChainstateBucket();
-		for (Map.Entry<String, byte[]> entry : chainstateBucket.entrySet()) {
-			String transactionId = entry.getKey();
-			TransactionOutput[] outputs = (TransactionOutput[]) SerializeUtils.deserialize(entry.getValue());
-
-			for (int index = 0; index < outputs.length; index++) {
-				TransactionOutput output = outputs[index];
-				if (output.isLockedWithKey(publicKeyHash) && accumulated < amount) {
-					accumulated += output.getValue();
-				}
+		return this.findSpendableOutputs(publicKeyHash, amount, utxo -> true, CoinSelector.DEFAULT);
+	}
 
-				int[] outputIds = unspentOuts.get(transactionId);
-				if (outputIds == null) {
-					outputIds = new int[index];
-				} else {
-					outputIds = ArrayUtils.add(outputIds, index);
-				}
-				unspentOuts.put(transactionId, outputIds);
-				if (accumulated >= amount) {
-					break;
-				}
-			}
+	/**
+	 * 寻找能够交易的输出，跳过不可用的UTXO，例如已经被交易池中的交易花费的UTXO
+	 *
+	 * @param publicKeyHash 钱包的公钥hash
+	 * @param amount        花费金额
+	 * @param usable        UTXO是否可用
+	 * @return
+	 */
+	public SpendableOutputResult findSpendableOutputs(byte[] publicKeyHash, int amount, Predicate<UnspentOutput> usable) {
+		return this.findSpendableOutputs(publicKeyHash, amount, usable, CoinSelector.DEFAULT);
+	}
+
+	/**
+	 * 寻找能够交易的输出，在该地址按金额排序的可用UTXO上执行选择策略
+	 *
+	 * @param publicKeyHash 钱包的公钥hash
+	 * @param amount        花费金额
+	 * @param usable        UTXO是否可用
+	 * @param selector      选择策略
+	 * @return 余额不足时累计金额为0
+	 */
+	public SpendableOutputResult findSpendableOutputs(byte[] publicKeyHash, int amount, Predicate<UnspentOutput> usable,
+													  CoinSelector selector) {
+		return this.findSpendableOutputs(publicKeyHash, amount, usable, selector, Collections.emptyList());
+	}
+
+	/**
+	 * 寻找能够交易的输出，候选的交易输出还包括交易池中未确认的交易输出
+	 *
+	 * @param publicKeyHash 钱包的公钥hash
+	 * @param amount        花费金额
+	 * @param usable        UTXO是否可用
+	 * @param selector      选择策略
+	 * @param unconfirmed   该地址未确认的交易输出
+	 * @return 余额不足时累计金额为0
+	 */
+	public SpendableOutputResult findSpendableOutputs(byte[] publicKeyHash, int amount, Predicate<UnspentOutput> usable,
+													  CoinSelector selector, List<UnspentOutput> unconfirmed) {
+		List<UnspentOutput> utxos = CoinsCache.getInstance().getAddressUTXOs(publicKeyHash);
+		utxos.removeIf(utxo -> !usable.test(utxo));
+		if (!unconfirmed.isEmpty()) {
+			utxos.addAll(unconfirmed);
+			utxos.sort(Comparator.comparingInt(utxo -> utxo.getOutput().getValue()));
+		}
+
+		Map<String, int[]> unspentOuts = Maps.newLinkedHashMap();
+		int accumulated = 0;
+		for (UnspentOutput utxo : selector.select(utxos, amount)) {
+			accumulated += utxo.getOutput().getValue();
+			int[] outputIds = unspentOuts.get(utxo.getTransactionId());
+			unspentOuts.put(utxo.getTransactionId(), ArrayUtils.add(outputIds, utxo.getIndex()));
 		}
 		return new SpendableOutputResult(accumulated, unspentOuts);
 	}
 
 	/**
-	 * 查找钱包地址对应的所有UTXO
+	 * 查找钱包地址对应的所有UTXO，只遍历该地址自己的UTXO
 	 *
 	 * @param publicKeyHash
 	 * @return
 	 */
 	public TransactionOutput[] findUTXOs(byte[] publicKeyHash) {
-		TransactionOutput[] utxos = {};
-		Map<String, byte[]> chainstateBucket = RocksDBUtils.getInstance().getChainstateBucket();
-
-		if (!chainstateBucket.isEmpty()) {
-			for (byte[] value : chainstateBucket.values()) {
-				TransactionOutput[] outputs = (TransactionOutput[]) SerializeUtils.deserialize(value);
-				for (TransactionOutput output : outputs) {
-					if (output.isLockedWithKey(publicKeyHash)) {
-						utxos = ArrayUtils.add(utxos, output);
-					}
-				}
+		List<UnspentOutput> utxos = CoinsCache.getInstance().getAddressUTXOs(publicKeyHash);
+		TransactionOutput[] outputs = new TransactionOutput[utxos.size()];
+		for (int i = 0; i < outputs.length; i++) {
+			outputs[i] = utxos.get(i).getOutput();
+		}
+		return outputs;
+	}
+
+	/**
+	 * 查询钱包地址的余额，读取随区块增量维护的地址余额，不需要遍历UTXO
+	 *
+	 * @param publicKeyHash
+	 * @return
+	 */
+	public long getBalance(byte[] publicKeyHash) {
+		return CoinsCache.getInstance().getBalance(publicKeyHash);
+	}
+
+	/**
+	 * 查询一个未花费的交易输出，优先从缓存中查询
+	 *
+	 * @param transactionId 交易id
+	 * @param index         交易输出下标
+	 * @return 不存在或者已经花费时返回null
+	 */
+	public TransactionOutput findUTXO(String transactionId, int index) {
+		return CoinsCache.getInstance().getCoin(transactionId, index);
+	}
+
+	/**
+	 * 交易是否还有未花费的交易输出
+	 *
+	 * @param transactionId 交易id
+	 * @return
+	 */
+	public boolean hasUTXOs(String transactionId) {
+		return CoinsCache.getInstance().hasCoins(transactionId);
+	}
+
+	/**
+	 * 更新UTXO池，需要刷盘时立即写入DB
+	 *
+	 * @param block 最新的区块
+	 */
+	public void update(Block block) {
+		try (WriteBatch batch = new WriteBatch()) {
+			if (this.update(block, batch)) {
+				RocksDBUtils.getInstance().writeBatch(batch);
+				CoinsCache.getInstance().clear();
 			}
 		}
-		return utxos;
 	}
 
 	/**
@@ -119,50 +237,74 @@ public class UTXOSet {
 	 * 当一个新的区块产生时，需要做两个事情
 	 * 1.从UTXO池中移除花费掉了的交易输出；
 	 * 2.保存新的未花费交易输出；
+	 * <p>
+	 * 变更先写入 {@link CoinsCache}，缓存需要刷盘时才把所有修改加入到批量写入中，由调用方统一提交，
+	 * 提交成功后调用方需要清空缓存。创世区块总是立即刷盘，保证DB中一定有 chainstate 对应的区块hash值。
 	 *
 	 * @param block 最新的区块
+	 * @param batch 批量写入
+	 * @return 缓存中的修改是否已经加入到批量写入中
 	 */
-	@Synchronized
-	public void update(Block block) {
+	public boolean update(Block block, WriteBatch batch) {
 		if (block == null) {
 			logger.error("Fail to update UTXO set ! tipBlock is null !");
 			throw new RuntimeException("Fail to update UTXO set ! ");
 		}
 
-		for (Transaction transaction : block.getTransactions()) {
-
-			//根据交易输入排查未被使用的交易输出
-			if (!transaction.isCoinBase()) {
-				for (TransactionInput input : transaction.getInputs()) {
-					//未被使用的交易输出
-					TransactionOutput[] unSpendOutputs = {};
-
-					String transactionId = Hex.encodeHexString(input.getTransactionId());
-					TransactionOutput[] outputs = RocksDBUtils.getInstance().getUTXOs(transactionId);
+		CoinsCache coinsCache = CoinsCache.getInstance();
+		synchronized (coinsCache) {
+			this.connect(block, this.getHeight(block));
+			if (StringUtils.isBlank(block.getPreviousHash()) || coinsCache.shouldFlush()) {
+				coinsCache.writeTo(batch);
+				return true;
+			}
+			return false;
+		}
+	}
 
-					if (outputs == null) {
-						continue;
-					}
+	/**
+	 * 把区块中的交易输出变更写入缓存
+	 *
+	 * @param block  区块
+	 * @param height 区块高度
+	 */
+	private void connect(Block block, long height) {
+		CoinsCache coinsCache = CoinsCache.getInstance();
+		synchronized (coinsCache) {
+			for (Transaction transaction : block.getTransactions()) {
 
-					for (int i = 0; i < outputs.length; i++) {
-						if (i != input.getTransactionOutputIndex()) {
-							unSpendOutputs = ArrayUtils.add(unSpendOutputs, outputs[i]);
-						}
+				//根据交易输入排查未被使用的交易输出
+				if (!transaction.isCoinBase()) {
+					for (TransactionInput input : transaction.getInputs()) {
+						coinsCache.spendCoin(Hex.encodeHexString(input.getTransactionId()), input.getTransactionOutputIndex());
 					}
+				}
 
-					//如果没有剩余则删除，否则更新
-					if (unSpendOutputs.length == 0) {
-						RocksDBUtils.getInstance().deleteUTXOs(transactionId);
-					} else {
-						RocksDBUtils.getInstance().putUTXOs(transactionId, unSpendOutputs);
-					}
+				//新的交易输出保存到缓存中
+				String transactionId = Hex.encodeHexString(transaction.getTransactionId());
+				TransactionOutput[] outputs = transaction.getOutputs();
+				for (int index = 0; index < outputs.length; index++) {
+					coinsCache.addCoin(transactionId, index, outputs[index], height, transaction.isCoinBase());
 				}
 			}
+			coinsCache.setBestBlockHash(block.getHash());
+		}
+	}
 
-			//新的交易输出保存到DB中
-			TransactionOutput[] outputs = transaction.getOutputs();
-			String transactionId = Hex.encodeHexString(transaction.getTransactionId());
-			RocksDBUtils.getInstance().putUTXOs(transactionId, outputs);
+	/**
+	 * 根据前一个区块的索引记录计算区块高度，区块自身的索引记录可能还在未提交的批量写入中
+	 *
+	 * @param block
+	 * @return
+	 */
+	private long getHeight(Block block) {
+		if (StringUtils.isBlank(block.getPreviousHash())) {
+			return 0;
+		}
+		BlockIndexEntry prevEntry = RocksDBUtils.getInstance().getBlockIndexEntry(block.getPreviousHash());
+		if (prevEntry == null) {
+			throw new RuntimeException("Fail to update UTXO set ! previous block is not indexed ! blockHash=" + block.getHash());
 		}
+		return prevEntry.getHeight() + 1;
 	}
 }
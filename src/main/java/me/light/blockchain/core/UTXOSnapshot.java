@@ -0,0 +1,400 @@
+package me.light.blockchain.core;
+
+import com.google.common.hash.Hashing;
+import me.light.blockchain.util.BinaryReader;
+import me.light.blockchain.util.BinaryWriter;
+import me.light.blockchain.util.RocksDBUtils;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.lang3.StringUtils;
+import org.rocksdb.WriteBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * UTXO池快照
+ * <p>
+ * 把某个区块对应的 chainstate 导出到文件，新节点可以直接导入，不需要从创世区块开始重建UTXO池。
+ * <p>
+ * 文件格式（整数都是小端序）：
+ * 1.文件头：魔数(4) + 版本(4) + 快照对应的区块hash(32) + 区块高度(8)；
+ * 2.若干个数据块：记录数(4) + 数据长度(4) + 数据 + 数据的CRC32C(4)，记录按 chainstate 的key顺序排列；
+ * 3.结束标记：记录数为0的数据块头(4)；
+ * 4.文件尾：记录总数(8) + 所有数据块数据的SHA-256(32)。
+ * <p>
+ * 每条记录 = 交易id(32) + 交易输出下标 + 创建高度 + 金额 + 公钥hash，都使用变长编码。
+ *
+ * @author light.hao
+ * @create 2026-10-18-23:20
+ */
+public class UTXOSnapshot {
+
+	private static final Logger logger = LoggerFactory.getLogger(UTXOSnapshot.class);
+
+	/**
+	 * 文件魔数 "utxo"
+	 */
+	private static final int MAGIC = 0x6f787475;
+
+	private static final int VERSION = 1;
+
+	private static final int HASH_LENGTH = 32;
+
+	/**
+	 * 每个数据块的记录数，可以通过 -Dblockchain.snapshot.chunkSize 配置
+	 */
+	private static final int CHUNK_SIZE = Integer.getInteger("blockchain.snapshot.chunkSize", 10000);
+
+	/**
+	 * 快照对应的区块hash值
+	 */
+	private final String blockHash;
+
+	/**
+	 * 快照对应的区块高度
+	 */
+	private final long height;
+
+	/**
+	 * 未花费交易输出的个数
+	 */
+	private final long count;
+
+	private UTXOSnapshot(String blockHash, long height, long count) {
+		this.blockHash = blockHash;
+		this.height = height;
+		this.count = count;
+	}
+
+	public String getBlockHash() {
+		return blockHash;
+	}
+
+	public long getHeight() {
+		return height;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * 导出当前的 chainstate，先把UTXO缓存刷盘，保证快照与 chainstate 记录的区块一致
+	 *
+	 * @param file 快照文件，先写入临时文件，完成后再替换
+	 * @return
+	 */
+	public static UTXOSnapshot dump(File file) {
+		CoinsCache.getInstance().flush();
+		String blockHash = RocksDBUtils.getInstance().getChainStateTip();
+		BlockIndexEntry entry = blockHash == null ? null : RocksDBUtils.getInstance().getBlockIndexEntry(blockHash);
+		if (entry == null) {
+			throw new RuntimeException("Fail to dump UTXO set ! chainstate tip is unknown ! ");
+		}
+
+		File tempFile = new File(file.getPath() + ".tmp");
+		long count;
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+			Writer writer = new Writer(out, blockHash, entry.getHeight(), CHUNK_SIZE);
+			RocksDBUtils.getInstance().iterateUTXOs(writer::write);
+			count = writer.finish();
+		} catch (IOException | UncheckedIOException e) {
+			tempFile.delete();
+			throw new RuntimeException("Fail to dump UTXO set ! ", e);
+		}
+
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new RuntimeException("Fail to dump UTXO set ! ", e);
+		}
+		logger.info("Dump UTXO set finished ! blockHash={}, height={}, utxos={}", blockHash, entry.getHeight(), count);
+		return new UTXOSnapshot(blockHash, entry.getHeight(), count);
+	}
+
+	/**
+	 * 导入快照，替换当前的 chainstate
+	 * <p>
+	 * 已经有区块数据时，快照对应的区块必须在区块索引中，导入后由 {@link Blockchain} 重放之后的区块；
+	 * 没有区块数据时直接导入，节点可以先提供余额查询。
+	 * <p>
+	 * 第一遍读取快照时把记录写入待导入的SST文件，同时校验每个数据块的CRC32C以及记录总数和SHA-256，
+	 * 全部校验通过后才清空当前的 chainstate，校验失败时当前的UTXO池保持不变。
+	 * 清空前会标记 chainstate 需要重建，导入中途退出后，下次启动时会从区块重建UTXO池。
+	 *
+	 * @param file 快照文件
+	 * @return
+	 * @throws Exception 快照文件格式错误或者对应的区块未知时抛出
+	 */
+	public static UTXOSnapshot load(File file) throws Exception {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			Reader reader = new Reader(in, file);
+			String blockHash = reader.getBlockHash();
+			long height = reader.getHeight();
+
+			if (StringUtils.isNotBlank(RocksDBUtils.getInstance().getLastBlockHash())) {
+				BlockIndexEntry entry = RocksDBUtils.getInstance().getBlockIndexEntry(blockHash);
+				if (entry == null) {
+					throw new Exception("ERROR: Snapshot block is unknown ! blockHash=" + blockHash);
+				}
+				if (entry.getHeight() != height) {
+					throw new Exception("ERROR: Snapshot height mismatch ! blockHash=" + blockHash + ", height=" + height);
+				}
+			}
+
+			logger.info("start to load UTXO set, blockHash={}, height={}", blockHash, height);
+			long count = RocksDBUtils.getInstance().prepareUTXOs(reader);
+
+			CoinsCache.getInstance().clear();
+			try (WriteBatch batch = new WriteBatch()) {
+				RocksDBUtils.getInstance().putChainStateVersion(batch, false);
+				RocksDBUtils.getInstance().writeBatch(batch);
+			}
+			RocksDBUtils.getInstance().cleanChainStateBucket();
+			RocksDBUtils.getInstance().ingestUTXOs();
+
+			try (WriteBatch batch = new WriteBatch()) {
+				RocksDBUtils.getInstance().putChainStateTip(batch, blockHash);
+				RocksDBUtils.getInstance().putChainStateVersion(batch, true);
+				RocksDBUtils.getInstance().writeBatch(batch);
+			}
+			logger.info("Load UTXO set finished ! blockHash={}, height={}, utxos={}", blockHash, height, count);
+			return new UTXOSnapshot(blockHash, height, count);
+		}
+	}
+
+	private static byte[] readFully(DataInputStream in, int length) {
+		byte[] bytes = new byte[length];
+		try {
+			in.readFully(bytes);
+		} catch (IOException e) {
+			throw new RuntimeException("Fail to read UTXO snapshot ! file is truncated ! ", e);
+		}
+		return bytes;
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("Fail to create SHA-256 digest ! ", e);
+		}
+	}
+
+	private static byte[] decodeHex(String hex) {
+		try {
+			return Hex.decodeHex(hex.toCharArray());
+		} catch (DecoderException e) {
+			throw new IllegalArgumentException("Invalid hex ! hex=" + hex, e);
+		}
+	}
+
+	/**
+	 * 按 chainstate 的key顺序写入快照，记录攒满一个数据块后写出
+	 */
+	static class Writer {
+
+		private final DataOutputStream out;
+
+		private final int chunkSize;
+
+		private final MessageDigest digest = newDigest();
+
+		private final BinaryWriter chunk = new BinaryWriter();
+
+		private int chunkRecords;
+
+		private long count;
+
+		/**
+		 * 写入文件头
+		 *
+		 * @param out
+		 * @param blockHash 快照对应的区块hash值
+		 * @param height    快照对应的区块高度
+		 * @param chunkSize 每个数据块的记录数
+		 * @throws IOException
+		 */
+		Writer(DataOutputStream out, String blockHash, long height, int chunkSize) throws IOException {
+			this.out = out;
+			this.chunkSize = chunkSize;
+			out.write(new BinaryWriter()
+					.writeInt32(MAGIC)
+					.writeInt32(VERSION)
+					.writeBytes(decodeHex(blockHash))
+					.writeInt64(height)
+					.toByteArray());
+		}
+
+		void write(UnspentOutput utxo) {
+			chunk.writeBytes(decodeHex(utxo.getTransactionId()))
+					.writeVarInt(utxo.getIndex())
+					.writeVarInt(utxo.getHeight())
+					.writeVarInt(utxo.getOutput().getValue())
+					.writeVarBytes(utxo.getOutput().getPublicKeyHash());
+			count++;
+			if (++chunkRecords == chunkSize) {
+				this.writeChunk();
+			}
+		}
+
+		/**
+		 * 写出最后一个数据块、结束标记和文件尾
+		 *
+		 * @return 记录总数
+		 * @throws IOException
+		 */
+		long finish() throws IOException {
+			if (chunkRecords > 0) {
+				this.writeChunk();
+			}
+			out.write(new BinaryWriter()
+					.writeInt32(0)
+					.writeInt64(count)
+					.writeBytes(digest.digest())
+					.toByteArray());
+			return count;
+		}
+
+		/**
+		 * 写入一个数据块并清空缓冲区
+		 */
+		private void writeChunk() {
+			byte[] payload = chunk.toByteArray();
+			chunk.reset();
+			digest.update(payload);
+			try {
+				out.write(new BinaryWriter(8).writeInt32(chunkRecords).writeInt32(payload.length).toByteArray());
+				out.write(payload);
+				out.write(new BinaryWriter(4).writeInt32(Hashing.crc32c().hashBytes(payload).asInt()).toByteArray());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			chunkRecords = 0;
+		}
+	}
+
+	/**
+	 * 按数据块读取快照中的记录，每个数据块读入后先校验CRC32C，读完最后一个数据块后校验记录总数和SHA-256，
+	 * 校验失败时抛出异常
+	 */
+	static class Reader implements Iterator<UnspentOutput> {
+
+		private final DataInputStream in;
+
+		private final String blockHash;
+
+		private final long height;
+
+		private final MessageDigest digest = newDigest();
+
+		private BinaryReader chunk;
+
+		private int remaining;
+
+		private long count;
+
+		private long chunkNumber;
+
+		private boolean finished;
+
+		/**
+		 * 读取并检查文件头
+		 *
+		 * @param in
+		 * @param file 快照文件，只用于错误信息
+		 * @throws Exception 不是快照文件或者版本不支持时抛出
+		 */
+		Reader(DataInputStream in, File file) throws Exception {
+			this.in = in;
+			BinaryReader header = new BinaryReader(readFully(in, 4 + 4 + HASH_LENGTH + 8));
+			if (header.readInt32() != MAGIC) {
+				throw new Exception("ERROR: Not a UTXO snapshot file ! file=" + file);
+			}
+			int version = header.readInt32();
+			if (version != VERSION) {
+				throw new Exception("ERROR: Unsupported UTXO snapshot version ! version=" + version);
+			}
+			this.blockHash = Hex.encodeHexString(header.readBytes(HASH_LENGTH));
+			this.height = header.readInt64();
+		}
+
+		String getBlockHash() {
+			return blockHash;
+		}
+
+		long getHeight() {
+			return height;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (remaining == 0 && !finished) {
+				this.nextChunk();
+			}
+			return remaining > 0;
+		}
+
+		@Override
+		public UnspentOutput next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			String transactionId = Hex.encodeHexString(chunk.readBytes(HASH_LENGTH));
+			int index = (int) chunk.readVarInt();
+			long height = chunk.readVarInt();
+			int value = (int) chunk.readVarInt();
+			byte[] publicKeyHash = chunk.readVarBytes();
+			if (--remaining == 0 && chunk.remaining() != 0) {
+				throw new RuntimeException("Fail to read UTXO snapshot ! trailing bytes in chunk, chunk=" + chunkNumber);
+			}
+			count++;
+			return new UnspentOutput(transactionId, index, new TransactionOutput(value, publicKeyHash), height);
+		}
+
+		private void nextChunk() {
+			BinaryReader chunkHeader = new BinaryReader(readFully(in, 4));
+			int records = chunkHeader.readInt32();
+			if (records == 0) {
+				this.verifyTrailer();
+				finished = true;
+				return;
+			}
+			chunkNumber++;
+			BinaryReader lengthReader = new BinaryReader(readFully(in, 4));
+			int length = lengthReader.readInt32();
+			if (records < 0 || length <= 0) {
+				throw new RuntimeException("Fail to read UTXO snapshot ! invalid chunk header, chunk=" + chunkNumber);
+			}
+			byte[] payload = readFully(in, length);
+			int checksum = new BinaryReader(readFully(in, 4)).readInt32();
+			if (checksum != Hashing.crc32c().hashBytes(payload).asInt()) {
+				throw new RuntimeException("Fail to read UTXO snapshot ! checksum mismatch, chunk=" + chunkNumber);
+			}
+			digest.update(payload);
+			chunk = new BinaryReader(payload);
+			remaining = records;
+		}
+
+		private void verifyTrailer() {
+			BinaryReader trailer = new BinaryReader(readFully(in, 8 + HASH_LENGTH));
+			long expectedCount = trailer.readInt64();
+			if (expectedCount != count) {
+				throw new RuntimeException("Fail to read UTXO snapshot ! count mismatch, expected=" + expectedCount
+						+ ", actual=" + count);
+			}
+			if (!Arrays.equals(trailer.readBytes(HASH_LENGTH), digest.digest())) {
+				throw new RuntimeException("Fail to read UTXO snapshot ! digest mismatch ! ");
+			}
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package me.light.blockchain.core;
+
+/**
+ * 未花费的交易输出以及它所在的位置
+ *
+ * @author light.hao
+ * @create 2026-10-18-11:40
+ */
+public class UnspentOutput {
+
+	/**
+	 * 交易id
+	 */
+	private String transactionId;
+
+	/**
+	 * 交易输出在交易中的下标
+	 */
+	private int index;
+
+	/**
+	 * 交易输出
+	 */
+	private TransactionOutput output;
+
+	/**
+	 * 创建交易输出的区块高度，只有从 chainstate 中读取时才有这个信息，否则为-1
+	 */
+	private long height = -1;
+
+	public String getTransactionId() {
+		return transactionId;
+	}
+
+	public void setTransactionId(String transactionId) {
+		this.transactionId = transactionId;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public TransactionOutput getOutput() {
+		return output;
+	}
+
+	public void setOutput(TransactionOutput output) {
+		this.output = output;
+	}
+
+	public long getHeight() {
+		return height;
+	}
+
+	public void setHeight(long height) {
+		this.height = height;
+	}
+
+	public UnspentOutput() {
+	}
+
+	public UnspentOutput(String transactionId, int index, TransactionOutput output) {
+		this.transactionId = transactionId;
+		this.index = index;
+		this.output = output;
+	}
+
+	public UnspentOutput(String transactionId, int index, TransactionOutput output, long height) {
+		this.transactionId = transactionId;
+		this.index = index;
+		this.output = output;
+		this.height = height;
+	}
+}
@@ -0,0 +1,317 @@
+package me.light.blockchain.mining;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.light.blockchain.core.Block;
+import me.light.blockchain.core.Blockchain;
+import me.light.blockchain.core.CanonicalCodec;
+import me.light.blockchain.core.Mempool;
+import me.light.blockchain.core.ProofOfWork;
+import me.light.blockchain.core.Transaction;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 矿池协调者
+ * <p>
+ * 负责从交易池组装区块模板并按 nonce 区间分发给多个矿工进程，收到矿工提交的 nonce 后验证工作量证明，
+ * 验证通过的区块通过 {@link Blockchain#addBlock(Block)} 加入区块链，然后基于新的最新区块生成下一个模板。
+ * 最新区块或者交易池中的交易集合变化后，当前模板立即作废，之后分发的任务都基于新的模板。
+ * 矿工只需要区块头和难度目标，不需要自己维护区块链和UTXO。
+ *
+ * @author light.hao
+ * @create 2026-10-18-18:15
+ */
+public class MiningCoordinator implements AutoCloseable {
+
+	private final Logger logger = LoggerFactory.getLogger(MiningCoordinator.class);
+
+	/**
+	 * 每次分发给矿工的 nonce 个数，可以通过 -Dblockchain.mining.chunkSize 配置
+	 */
+	private static final long NONCE_CHUNK = Long.getLong("blockchain.mining.chunkSize", 1L << 24);
+
+	/**
+	 * 每个区块模板的 nonce 范围，分发完后使用新的额外nonce生成模板，可以通过 -Dblockchain.mining.nonceRange 配置
+	 */
+	private static final long NONCE_RANGE = Long.getLong("blockchain.mining.nonceRange", 1L << 32);
+
+	/**
+	 * 监听地址，默认只监听本机，可以通过 -Dblockchain.mining.bind 配置
+	 */
+	private static final String BIND_ADDRESS = System.getProperty("blockchain.mining.bind");
+
+	private final Blockchain blockchain;
+
+	private final Mempool mempool;
+
+	/**
+	 * 每个区块最多打包的交易个数
+	 */
+	private final int maxBlockTransactions;
+
+	/**
+	 * 挖矿奖励的钱包地址
+	 */
+	private final String address;
+
+	private final ServerSocket serverSocket;
+
+	private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+			.setNameFormat("mining-coordinator-%d")
+			.setDaemon(true)
+			.build());
+
+	/**
+	 * 当前的区块模板，最新区块或者交易集合变化时由监听器清空
+	 */
+	private volatile Template template;
+
+	/**
+	 * 最新区块和交易集合的变化次数，模板记录生成时的值，用于发现生成过程中发生的变化
+	 */
+	private final AtomicLong updates = new AtomicLong();
+
+	private final Consumer<String> tipListener = tipHash -> this.expireTemplate();
+
+	private final Runnable mempoolListener = this::expireTemplate;
+
+	private long jobSequence;
+
+	/**
+	 * 上一个模板基于的区块hash值，最新区块没有变化时递增额外nonce，保证每个模板的区块头都不同
+	 */
+	private String templatePreviousHash;
+
+	private long extraNonce;
+
+	public MiningCoordinator(Blockchain blockchain, Mempool mempool, int maxBlockTransactions, String address,
+							 int port) throws IOException {
+		this.blockchain = blockchain;
+		this.mempool = mempool;
+		this.maxBlockTransactions = maxBlockTransactions;
+		this.address = address;
+		InetAddress bindAddress = BIND_ADDRESS == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(BIND_ADDRESS);
+		this.serverSocket = new ServerSocket(port, 50, bindAddress);
+		blockchain.addTipListener(tipListener);
+		mempool.addListener(mempoolListener);
+	}
+
+	/**
+	 * 作废当前模板，在区块链或者交易池的监听器中调用，不获取协调者的锁，避免与 {@link #submit(long, long)} 死锁
+	 */
+	private void expireTemplate() {
+		updates.incrementAndGet();
+		template = null;
+	}
+
+	/**
+	 * 接受矿工连接，直到协调者被关闭
+	 */
+	public void serve() {
+		logger.info("Mining coordinator listening on {}", serverSocket.getLocalSocketAddress());
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				executor.submit(() -> handle(socket));
+			} catch (SocketException e) {
+				if (!serverSocket.isClosed()) {
+					logger.error("Fail to accept worker ! ", e);
+				}
+			} catch (IOException e) {
+				logger.error("Fail to accept worker ! ", e);
+			}
+		}
+	}
+
+	/**
+	 * 处理一个矿工连接上的请求
+	 *
+	 * @param socket
+	 */
+	private void handle(Socket socket) {
+		String worker = String.valueOf(socket.getRemoteSocketAddress());
+		logger.info("Worker connected, worker={}", worker);
+		try (Socket s = socket;
+			 BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+			 PrintWriter writer = new PrintWriter(s.getOutputStream(), true)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				writer.println(process(line.trim().split(" ")));
+			}
+		} catch (IOException e) {
+			logger.warn("Worker connection failed, worker={}", worker, e);
+		}
+		logger.info("Worker disconnected, worker={}", worker);
+	}
+
+	/**
+	 * 处理一条请求
+	 *
+	 * @param request
+	 * @return 回复
+	 */
+	private String process(String[] request) {
+		try {
+			switch (request[0]) {
+				case MiningProtocol.GET_WORK:
+					return getWork();
+				case MiningProtocol.SUBMIT:
+					return submit(Long.parseLong(request[1]), Long.parseLong(request[2]));
+				default:
+					return MiningProtocol.REJECTED + " unknown command";
+			}
+		} catch (RuntimeException e) {
+			logger.error("Fail to process request ! request={}", String.join(" ", request), e);
+			return MiningProtocol.REJECTED + " " + e.getClass().getSimpleName();
+		}
+	}
+
+	/**
+	 * 分发下一个 nonce 区间，当前模板的区间分发完后生成新的模板
+	 *
+	 * @return
+	 */
+	private synchronized String getWork() {
+		Template current = template;
+		long seen = updates.get();
+		if (current == null || current.nextNonce >= NONCE_RANGE || current.updates != seen) {
+			current = newTemplate(seen);
+			template = current;
+		}
+		long fromNonce = current.nextNonce;
+		long toNonce = Math.min(NONCE_RANGE, fromNonce + NONCE_CHUNK);
+		current.nextNonce = toNonce;
+		return String.join(" ", MiningProtocol.WORK, String.valueOf(current.jobId), current.headerHex,
+				current.targetHex, String.valueOf(fromNonce), String.valueOf(toNonce));
+	}
+
+	/**
+	 * 处理矿工提交的 nonce
+	 *
+	 * @param jobId 任务id
+	 * @param nonce
+	 * @return
+	 */
+	private synchronized String submit(long jobId, long nonce) {
+		Template current = template;
+		if (current == null || current.jobId != jobId) {
+			return MiningProtocol.STALE;
+		}
+
+		byte[] header = current.header.clone();
+		CanonicalCodec.writeNonce(header, nonce);
+		Block block = new Block(DigestUtils.sha256Hex(header), current.block.getPreviousHash(),
+				current.block.getTransactions(), current.block.getTimeStamp());
+		block.setNonce(nonce);
+		if (!ProofOfWork.newProofOfWork(block).validate()) {
+			return MiningProtocol.REJECTED + " invalid proof of work";
+		}
+
+		if (!blockchain.addBlock(block)) {
+			// 其他途径已经延长了区块链，这个区块基于旧的最新区块
+			template = null;
+			return MiningProtocol.STALE;
+		}
+		template = null;
+		mempool.removeForBlock(block);
+		mempool.save();
+		logger.info("Block accepted, height={}, hash={}, jobId={}, transactions={}", blockchain.getHeight(), block.getHash(),
+				jobId, block.getTransactions().length);
+		return MiningProtocol.ACCEPTED + " " + block.getHash();
+	}
+
+	/**
+	 * 基于最新区块和交易池生成区块模板，与 CLI 挖矿一样按手续费率选择交易，coinbase交易放在最后；
+	 * 最新区块没有变化时增加coinbase交易中的额外nonce
+	 *
+	 * @param seen 生成模板前读取的变化次数
+	 * @return
+	 */
+	private Template newTemplate(long seen) {
+		String previousHash = blockchain.getLastBlockHash();
+		if (previousHash.equals(templatePreviousHash)) {
+			extraNonce++;
+		} else {
+			extraNonce = 0;
+			templatePreviousHash = previousHash;
+		}
+		long height = blockchain.getHeight() + 1;
+		Transaction[] selected = mempool.getBlockTemplate(maxBlockTransactions);
+		if (!blockchain.verifyTransactions(selected)) {
+			// 交易池与UTXO池不一致时宁可只挖coinbase交易，也不要分发无效的区块
+			logger.warn("Mempool transactions are invalid, mine an empty block ! count={}", selected.length);
+			selected = new Transaction[0];
+		}
+		Transaction[] transactions = Arrays.copyOf(selected, selected.length + 1);
+		transactions[selected.length] = Transaction.newCoinbaseTransaction(address, "").withExtraNonce(height, extraNonce);
+		Block block = new Block(null, previousHash, transactions, Instant.now().getEpochSecond());
+		ProofOfWork proofOfWork = ProofOfWork.newProofOfWork(block);
+
+		Template newTemplate = new Template(++jobSequence, seen, block, proofOfWork.prepareHeader(),
+				Hex.encodeHexString(ProofOfWork.toTargetBytes(proofOfWork.getTarget())));
+		logger.info("New block template, jobId={}, height={}, extraNonce={}, transactions={}", newTemplate.jobId, height,
+				extraNonce, transactions.length);
+		return newTemplate;
+	}
+
+	@Override
+	public void close() throws IOException {
+		blockchain.removeTipListener(tipListener);
+		mempool.removeListener(mempoolListener);
+		serverSocket.close();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * 区块模板
+	 */
+	private static class Template {
+
+		private final long jobId;
+
+		/**
+		 * 生成模板时最新区块和交易集合的变化次数
+		 */
+		private final long updates;
+
+		private final Block block;
+
+		private final byte[] header;
+
+		private final String headerHex;
+
+		private final String targetHex;
+
+		/**
+		 * 下一个待分发的 nonce
+		 */
+		private long nextNonce;
+
+		private Template(long jobId, long updates, Block block, byte[] header, String targetHex) {
+			this.jobId = jobId;
+			this.updates = updates;
+			this.block = block;
+			this.header = header;
+			this.headerHex = Hex.encodeHexString(header);
+			this.targetHex = targetHex;
+		}
+	}
+}
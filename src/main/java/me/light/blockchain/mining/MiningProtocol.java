@@ -0,0 +1,34 @@
+package me.light.blockchain.mining;
+
+/**
+ * 矿池协调者与矿工之间的文本行协议
+ * <p>
+ * 矿工发送 GETWORK，协调者回复 WORK 任务id 区块头(hex) 难度目标(hex) 起始nonce 结束nonce，
+ * 矿工在 [起始nonce, 结束nonce) 范围内搜索，找到后发送 SUBMIT 任务id nonce，
+ * 协调者回复 ACCEPTED 区块hash、STALE(任务已过期) 或者 REJECTED 原因。
+ *
+ * @author light.hao
+ * @create 2026-10-18-18:10
+ */
+public final class MiningProtocol {
+
+	/**
+	 * 默认端口，可以通过 -Dblockchain.mining.port 配置
+	 */
+	public static final int DEFAULT_PORT = Integer.getInteger("blockchain.mining.port", 8555);
+
+	public static final String GET_WORK = "GETWORK";
+
+	public static final String WORK = "WORK";
+
+	public static final String SUBMIT = "SUBMIT";
+
+	public static final String ACCEPTED = "ACCEPTED";
+
+	public static final String STALE = "STALE";
+
+	public static final String REJECTED = "REJECTED";
+
+	private MiningProtocol() {
+	}
+}
@@ -0,0 +1,95 @@
+package me.light.blockchain.mining;
+
+import me.light.blockchain.core.PowResult;
+import me.light.blockchain.core.ProofOfWork;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 矿工
+ * <p>
+ * 从协调者获取区块头模板和 nonce 区间，在区间内搜索满足难度目标的 nonce 并提交，不需要访问区块链数据
+ *
+ * @author light.hao
+ * @create 2026-10-18-18:40
+ */
+public class MiningWorker {
+
+	private final Logger logger = LoggerFactory.getLogger(MiningWorker.class);
+
+	private final String host;
+
+	private final int port;
+
+	/**
+	 * 已尝试的hash次数
+	 */
+	private final LongAdder hashesTried = new LongAdder();
+
+	public MiningWorker(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * 连接协调者并持续挖矿，直到连接断开
+	 *
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+		long startTime = System.currentTimeMillis();
+		try (Socket socket = new Socket(host, port);
+			 BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			 PrintWriter writer = new PrintWriter(socket.getOutputStream(), true)) {
+			logger.info("Connected to mining coordinator {}:{}", host, port);
+			while (true) {
+				writer.println(MiningProtocol.GET_WORK);
+				String line = reader.readLine();
+				if (line == null) {
+					break;
+				}
+				String[] work = line.split(" ");
+				if (!MiningProtocol.WORK.equals(work[0])) {
+					throw new IOException("Unexpected reply from coordinator ! reply=" + line);
+				}
+
+				long jobId = Long.parseLong(work[1]);
+				byte[] header = decodeHex(work[2]);
+				byte[] targetBytes = decodeHex(work[3]);
+				long fromNonce = Long.parseLong(work[4]);
+				long toNonce = Long.parseLong(work[5]);
+				PowResult powResult = ProofOfWork.searchHeader(header, targetBytes, fromNonce, toNonce, () -> false, hashesTried);
+				if (powResult != null) {
+					writer.println(String.join(" ", MiningProtocol.SUBMIT, String.valueOf(jobId), String.valueOf(powResult.getNonce())));
+					String reply = reader.readLine();
+					if (reply == null) {
+						break;
+					}
+					logger.info("Submitted nonce, jobId={}, nonce={}, reply={}", jobId, powResult.getNonce(), reply);
+				}
+
+				long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+				logger.info("Hashes tried: {}, hash rate: {}/s", hashesTried.sum(), hashesTried.sum() * 1000 / elapsed);
+			}
+		}
+		logger.info("Mining coordinator closed the connection");
+	}
+
+	private static byte[] decodeHex(String hex) throws IOException {
+		try {
+			return Hex.decodeHex(hex.toCharArray());
+		} catch (DecoderException e) {
+			throw new IOException("Invalid hex from coordinator ! hex=" + hex, e);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package me.light.blockchain.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 二进制编码读取工具，与 {@link BinaryWriter} 的格式对应
+ * <p>
+ * 直接读取 ByteBuffer，可以用于堆内数组，也可以用于内存映射文件。
+ * 变长整数只接受最短的编码，保证同一数据只有一种合法编码。
+ *
+ * @author light.hao
+ * @create 2026-10-18-14:20
+ */
+public class BinaryReader {
+
+	private final ByteBuffer buffer;
+
+	public BinaryReader(byte[] bytes) {
+		this(ByteBuffer.wrap(bytes));
+	}
+
+	public BinaryReader(ByteBuffer buffer) {
+		this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public int readByte() {
+		return buffer.get() & 0xFF;
+	}
+
+	/**
+	 * 读取定长的字节数组
+	 *
+	 * @param length
+	 * @return
+	 */
+	public byte[] readBytes(int length) {
+		if (length > buffer.remaining()) {
+			throw new IllegalArgumentException("Not enough data ! length=" + length + ", remaining=" + buffer.remaining());
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * 读取变长的字节数组，长度为0时返回null
+	 *
+	 * @return
+	 */
+	public byte[] readVarBytes() {
+		long length = readVarInt();
+		if (length == 0) {
+			return null;
+		}
+		if (length > buffer.remaining()) {
+			throw new IllegalArgumentException("Not enough data ! length=" + length + ", remaining=" + buffer.remaining());
+		}
+		return readBytes((int) length);
+	}
+
+	public int readInt32() {
+		return buffer.getInt();
+	}
+
+	public long readInt64() {
+		return buffer.getLong();
+	}
+
+	/**
+	 * 读取 CompactSize 变长整数
+	 *
+	 * @return
+	 */
+	public long readVarInt() {
+		int first = readByte();
+		long value;
+		long min;
+		if (first < 0xFD) {
+			return first;
+		} else if (first == 0xFD) {
+			value = buffer.getShort() & 0xFFFF;
+			min = 0xFD;
+		} else if (first == 0xFE) {
+			value = buffer.getInt() & 0xFFFFFFFFL;
+			min = 0x10000;
+		} else {
+			value = buffer.getLong();
+			min = 0x100000000L;
+		}
+		if (value < min) {
+			throw new IllegalArgumentException("Non-canonical var int ! value=" + value);
+		}
+		return value;
+	}
+
+	/**
+	 * 读取一个不超过剩余数据长度的元素个数，防止恶意数据导致分配过大的数组
+	 *
+	 * @return
+	 */
+	public int readCount() {
+		long count = readVarInt();
+		if (count > buffer.remaining()) {
+			throw new IllegalArgumentException("Invalid element count ! count=" + count);
+		}
+		return (int) count;
+	}
+
+	public int remaining() {
+		return buffer.remaining();
+	}
+
+	public int position() {
+		return buffer.position();
+	}
+}
@@ -0,0 +1,144 @@
+package me.light.blockchain.util;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * 二进制编码写入工具
+ * <p>
+ * 整数使用小端序，长度使用比特币的 CompactSize 变长编码：
+ * 小于 0xFD 用1个字节，否则用 0xFD/0xFE/0xFF 加上2/4/8个字节。
+ *
+ * @author light.hao
+ * @create 2026-10-18-14:20
+ */
+public class BinaryWriter {
+
+	private byte[] buffer;
+
+	private int size;
+
+	public BinaryWriter() {
+		this(256);
+	}
+
+	public BinaryWriter(int initialCapacity) {
+		this.buffer = new byte[initialCapacity];
+	}
+
+	public BinaryWriter writeByte(int value) {
+		ensureCapacity(1);
+		buffer[size++] = (byte) value;
+		return this;
+	}
+
+	/**
+	 * 写入定长的字节数组
+	 *
+	 * @param bytes
+	 * @return
+	 */
+	public BinaryWriter writeBytes(byte[] bytes) {
+		return writeBytes(bytes, 0, bytes.length);
+	}
+
+	public BinaryWriter writeBytes(byte[] bytes, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(bytes, offset, buffer, size, length);
+		size += length;
+		return this;
+	}
+
+	/**
+	 * 写入变长的字节数组，先写入长度，null按空数组处理
+	 *
+	 * @param bytes
+	 * @return
+	 */
+	public BinaryWriter writeVarBytes(byte[] bytes) {
+		if (bytes == null) {
+			return writeVarInt(0);
+		}
+		writeVarInt(bytes.length);
+		return writeBytes(bytes);
+	}
+
+	public BinaryWriter writeInt32(int value) {
+		ensureCapacity(Integer.BYTES);
+		for (int i = 0; i < Integer.BYTES; i++) {
+			buffer[size++] = (byte) (value >>> (8 * i));
+		}
+		return this;
+	}
+
+	public BinaryWriter writeInt64(long value) {
+		ensureCapacity(Long.BYTES);
+		for (int i = 0; i < Long.BYTES; i++) {
+			buffer[size++] = (byte) (value >>> (8 * i));
+		}
+		return this;
+	}
+
+	/**
+	 * 写入 CompactSize 变长整数
+	 *
+	 * @param value 非负整数
+	 * @return
+	 */
+	public BinaryWriter writeVarInt(long value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("Negative var int ! value=" + value);
+		}
+		if (value < 0xFD) {
+			return writeByte((int) value);
+		}
+		if (value <= 0xFFFF) {
+			writeByte(0xFD);
+			ensureCapacity(2);
+			buffer[size++] = (byte) value;
+			buffer[size++] = (byte) (value >>> 8);
+			return this;
+		}
+		if (value <= 0xFFFFFFFFL) {
+			writeByte(0xFE);
+			return writeInt32((int) value);
+		}
+		writeByte(0xFF);
+		return writeInt64(value);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * 清空已写入的数据，保留缓冲区以便复用
+	 */
+	public void reset() {
+		size = 0;
+	}
+
+	/**
+	 * 已写入数据的副本
+	 *
+	 * @return
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, size);
+	}
+
+	/**
+	 * 将已写入的数据直接交给摘要计算，不产生副本
+	 *
+	 * @param digest
+	 */
+	public void writeTo(MessageDigest digest) {
+		digest.update(buffer, 0, size);
+	}
+
+	private void ensureCapacity(int extra) {
+		if (size + extra > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+		}
+	}
+}
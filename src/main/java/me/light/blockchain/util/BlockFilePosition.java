@@ -0,0 +1,58 @@
+package me.light.blockchain.util;
+
+/**
+ * 区块在区块文件中的位置
+ *
+ * @author light.hao
+ * @create 2026-10-18-16:05
+ */
+public class BlockFilePosition {
+
+	/**
+	 * 区块文件编号，对应 blk00000.dat 中的数字
+	 */
+	private int fileNumber;
+
+	/**
+	 * 区块数据在文件中的起始位置
+	 */
+	private long offset;
+
+	/**
+	 * 区块数据的长度
+	 */
+	private int length;
+
+	public int getFileNumber() {
+		return fileNumber;
+	}
+
+	public void setFileNumber(int fileNumber) {
+		this.fileNumber = fileNumber;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public void setOffset(long offset) {
+		this.offset = offset;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public void setLength(int length) {
+		this.length = length;
+	}
+
+	public BlockFilePosition() {
+	}
+
+	public BlockFilePosition(int fileNumber, long offset, int length) {
+		this.fileNumber = fileNumber;
+		this.offset = offset;
+		this.length = length;
+	}
+}
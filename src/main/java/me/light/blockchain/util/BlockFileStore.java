@@ -0,0 +1,199 @@
+package me.light.blockchain.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 区块文件存储
+ * <p>
+ * 区块数据只追加写入到滚动的区块文件(blk00000.dat、blk00001.dat ...)中，写满后切换到下一个文件，
+ * 每条记录为 魔数(4字节) + 长度(4字节) + 区块数据，RocksDB 中只保存区块的位置。
+ * 读取时通过内存映射直接访问页缓存，不需要复制数据。
+ * <p>
+ * 追加写入在数据库批量提交之前完成，提交失败只会在文件末尾留下没有被索引引用的数据，不影响一致性。
+ *
+ * @author light.hao
+ * @create 2026-10-18-16:10
+ */
+public class BlockFileStore implements AutoCloseable {
+
+	private final Logger logger = LoggerFactory.getLogger(BlockFileStore.class);
+
+	/**
+	 * 每条记录的魔数
+	 */
+	private static final int RECORD_MAGIC = 0xF9BEB4D9;
+
+	/**
+	 * 记录头的长度，魔数 + 数据长度
+	 */
+	private static final int RECORD_HEADER_LENGTH = Integer.BYTES + Integer.BYTES;
+
+	private static final Pattern FILE_NAME_PATTERN = Pattern.compile("blk(\\d{5})\\.dat");
+
+	/**
+	 * 区块文件所在目录
+	 */
+	private final File directory;
+
+	/**
+	 * 单个区块文件的最大长度，超过后切换到下一个文件
+	 */
+	private final long maxFileSize;
+
+	/**
+	 * 每次追加后是否同步刷盘
+	 */
+	private final boolean sync;
+
+	/**
+	 * 已经映射的区块文件，文件增长后按需重新映射
+	 */
+	private final Map<Integer, MappedByteBuffer> mappedFiles = new ConcurrentHashMap<>();
+
+	/**
+	 * 当前追加写入的文件编号
+	 */
+	private int currentFileNumber;
+
+	/**
+	 * 当前追加写入的文件
+	 */
+	private FileChannel currentChannel;
+
+	public BlockFileStore(File directory, long maxFileSize, boolean sync) {
+		if (maxFileSize <= RECORD_HEADER_LENGTH || maxFileSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid block file size ! maxFileSize=" + maxFileSize);
+		}
+		this.directory = directory;
+		this.maxFileSize = maxFileSize;
+		this.sync = sync;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new RuntimeException("Fail to create block file directory ! directory=" + directory);
+		}
+		this.currentFileNumber = lastFileNumber();
+		this.currentChannel = openForAppend(currentFileNumber);
+	}
+
+	/**
+	 * 追加区块数据
+	 *
+	 * @param bytes 区块数据
+	 * @return 区块数据的位置
+	 */
+	public synchronized BlockFilePosition append(byte[] bytes) {
+		try {
+			long recordLength = RECORD_HEADER_LENGTH + (long) bytes.length;
+			if (currentChannel.size() > 0 && currentChannel.size() + recordLength > maxFileSize) {
+				currentChannel.close();
+				currentFileNumber++;
+				currentChannel = openForAppend(currentFileNumber);
+			}
+
+			long offset = currentChannel.size();
+			ByteBuffer buffer = ByteBuffer.allocate((int) recordLength);
+			buffer.putInt(RECORD_MAGIC).putInt(bytes.length).put(bytes).flip();
+			while (buffer.hasRemaining()) {
+				currentChannel.write(buffer, offset + buffer.position());
+			}
+			if (sync) {
+				currentChannel.force(false);
+			}
+			return new BlockFilePosition(currentFileNumber, offset + RECORD_HEADER_LENGTH, bytes.length);
+		} catch (IOException e) {
+			throw new RuntimeException("Fail to append block ! fileNumber=" + currentFileNumber, e);
+		}
+	}
+
+	/**
+	 * 读取区块数据，返回内存映射文件上的只读视图，不复制数据
+	 *
+	 * @param position 区块数据的位置
+	 * @return
+	 */
+	public ByteBuffer read(BlockFilePosition position) {
+		long end = position.getOffset() + position.getLength();
+		MappedByteBuffer mapped = mappedFiles.get(position.getFileNumber());
+		if (mapped == null || mapped.capacity() < end) {
+			mapped = map(position.getFileNumber(), end);
+		}
+		ByteBuffer view = mapped.asReadOnlyBuffer();
+		view.position((int) position.getOffset());
+		view.limit((int) end);
+		return view.slice();
+	}
+
+	/**
+	 * 映射整个区块文件
+	 *
+	 * @param fileNumber 文件编号
+	 * @param minSize    至少需要映射的长度
+	 * @return
+	 */
+	private synchronized MappedByteBuffer map(int fileNumber, long minSize) {
+		MappedByteBuffer mapped = mappedFiles.get(fileNumber);
+		if (mapped != null && mapped.capacity() >= minSize) {
+			return mapped;
+		}
+		try (RandomAccessFile file = new RandomAccessFile(fileOf(fileNumber), "r")) {
+			long size = file.length();
+			if (size < minSize) {
+				throw new IllegalStateException("Block file is truncated ! fileNumber=" + fileNumber + ", size=" + size);
+			}
+			mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+			mappedFiles.put(fileNumber, mapped);
+			return mapped;
+		} catch (IOException e) {
+			throw new RuntimeException("Fail to map block file ! fileNumber=" + fileNumber, e);
+		}
+	}
+
+	/**
+	 * 查找编号最大的区块文件
+	 *
+	 * @return 没有区块文件时返回0
+	 */
+	private int lastFileNumber() {
+		int last = 0;
+		String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				Matcher matcher = FILE_NAME_PATTERN.matcher(name);
+				if (matcher.matches()) {
+					last = Math.max(last, Integer.parseInt(matcher.group(1)));
+				}
+			}
+		}
+		return last;
+	}
+
+	private FileChannel openForAppend(int fileNumber) {
+		try {
+			logger.info("Open block file {}", fileOf(fileNumber).getName());
+			return new RandomAccessFile(fileOf(fileNumber), "rw").getChannel();
+		} catch (IOException e) {
+			throw new RuntimeException("Fail to open block file ! fileNumber=" + fileNumber, e);
+		}
+	}
+
+	private File fileOf(int fileNumber) {
+		return new File(directory, String.format("blk%05d.dat", fileNumber));
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		mappedFiles.clear();
+		currentChannel.close();
+	}
+}
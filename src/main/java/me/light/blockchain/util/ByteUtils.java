@@ -1,10 +1,6 @@
 package me.light.blockchain.util;
 
-import org.apache.commons.lang3.ArrayUtils;
-
 import java.nio.ByteBuffer;
-import java.util.Arrays;
-import java.util.stream.Stream;
 
 /**
  * 字节组工具类
@@ -20,11 +16,17 @@ public class ByteUtils {
 	 * @return
 	 */
 	public static byte[] merge(byte[]... bytes) {
-		Stream<Byte> stream = Stream.of();
+		int length = 0;
+		for (byte[] b : bytes) {
+			length += b.length;
+		}
+		byte[] merged = new byte[length];
+		int offset = 0;
 		for (byte[] b : bytes) {
-			stream = Stream.concat(stream, Arrays.stream(ArrayUtils.toObject(b)));
+			System.arraycopy(b, 0, merged, offset, b.length);
+			offset += b.length;
 		}
-		return ArrayUtils.toPrimitive(stream.toArray(Byte[]::new));
+		return merged;
 	}
 
 	/**
@@ -1,22 +1,52 @@
 package me.light.blockchain.util;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import me.light.blockchain.core.Block;
+import me.light.blockchain.core.BlockHeader;
+import me.light.blockchain.core.BlockIndexEntry;
+import me.light.blockchain.core.CanonicalCodec;
+import me.light.blockchain.core.CoinsView;
+import me.light.blockchain.core.TransactionLocation;
 import me.light.blockchain.core.TransactionOutput;
-import org.rocksdb.RocksDB;
-import org.rocksdb.RocksDBException;
+import me.light.blockchain.core.UnspentOutput;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.lang3.ArrayUtils;
+import org.rocksdb.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * 存储工具类
+ * <p>
+ * 区块、链状态(UTXO)、区块索引以及元数据分别存放在独立的列族(column family)中，
+ * 每个列族按照自身的读写特点单独调优：
+ * 1.chainstate 与 blockindex 以随机点查为主，使用布隆过滤器和共享的大容量block cache，
+ * chainstate 中每个输出点一条记录，花费交易输出只需要删除一个key；
+ * 2.blocks 只追加不修改，使用更大的写缓冲和压缩；
+ * 3.meta 只保存少量的元数据，使用默认配置。
+ * <p>
+ * 默认情况下区块数据追加写入到区块文件中(见 {@link BlockFileStore})，blockindex 中只保存区块在文件中的位置，
+ * 避免压缩时反复重写不可变的区块数据，blocks 列族只保留旧数据以及配置为 rocksdb 存储方式时写入的区块。
  *
  * @author light.hao
  * @create 2018-09-20-14:22
  */
-public class RocksDBUtils {
+public class RocksDBUtils implements CoinsView {
 
 	private final Logger logger = LoggerFactory.getLogger(RocksDBUtils.class);
 
@@ -26,19 +56,176 @@ public class RocksDBUtils {
 	private final String DB_FILE = "blockchain.db";
 
 	/**
-	 * 区块桶前缀
+	 * 共享block cache的大小，可以通过 -Dblockchain.db.blockCacheSize 配置，单位字节
+	 */
+	private static final long BLOCK_CACHE_SIZE = Long.getLong("blockchain.db.blockCacheSize", 256L * 1024 * 1024);
+
+	/**
+	 * blocks 列族的写缓冲大小
+	 */
+	private static final long BLOCKS_WRITE_BUFFER_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * blocks 列族的数据块大小，大的数据块压缩率更高
+	 */
+	private static final long BLOCKS_BLOCK_SIZE = 64L * 1024;
+
+	/**
+	 * 点查列族的写缓冲大小
+	 */
+	private static final long POINT_LOOKUP_WRITE_BUFFER_SIZE = 32L * 1024 * 1024;
+
+	/**
+	 * 解码后区块的缓存个数，可以通过 -Dblockchain.cache.blocks 配置
+	 */
+	private static final long BLOCK_OBJECT_CACHE_SIZE = Long.getLong("blockchain.cache.blocks", 1024L);
+
+	/**
+	 * 区块头的缓存个数，可以通过 -Dblockchain.cache.headers 配置
+	 */
+	private static final long HEADER_CACHE_SIZE = Long.getLong("blockchain.cache.headers", 100000L);
+
+	/**
+	 * 批量提交区块时是否同步刷盘，可以通过 -Dblockchain.db.syncCommit 配置
+	 */
+	private static final boolean SYNC_COMMIT = Boolean.parseBoolean(System.getProperty("blockchain.db.syncCommit", "true"));
+
+	/**
+	 * 区块数据的存储方式，file 表示追加写入区块文件，rocksdb 表示写入 blocks 列族，
+	 * 可以通过 -Dblockchain.db.blockStore 配置，两种方式写入的区块都可以读取
+	 */
+	private static final boolean FILE_BLOCK_STORE = "file".equalsIgnoreCase(System.getProperty("blockchain.db.blockStore", "file"));
+
+	/**
+	 * 区块文件所在目录
+	 */
+	private static final String BLOCK_FILE_DIR = "blocks";
+
+	/**
+	 * 单个区块文件的最大长度，可以通过 -Dblockchain.db.blockFileSize 配置，单位字节
+	 */
+	private static final long BLOCK_FILE_SIZE = Long.getLong("blockchain.db.blockFileSize", 128L * 1024 * 1024);
+
+	/**
+	 * 布隆过滤器每个key占用的bit数
+	 */
+	private static final int BLOOM_BITS_PER_KEY = 10;
+
+	/**
+	 * 区块列族
+	 */
+	private static final String BLOCKS_FAMILY = "blocks";
+
+	/**
+	 * 链状态列族
+	 */
+	private static final String CHAINSTATE_FAMILY = "chainstate";
+
+	/**
+	 * 区块索引列族
+	 */
+	private static final String BLOCK_INDEX_FAMILY = "blockindex";
+
+	/**
+	 * 交易索引列族
+	 */
+	private static final String TX_INDEX_FAMILY = "txindex";
+
+	/**
+	 * 地址索引列族
+	 */
+	private static final String ADDRESS_INDEX_FAMILY = "addrindex";
+
+	/**
+	 * 地址余额列族
+	 */
+	private static final String BALANCE_FAMILY = "balance";
+
+	/**
+	 * 元数据列族
+	 */
+	private static final String META_FAMILY = "meta";
+
+	/**
+	 * 旧版本的区块桶Key（整个桶序列化后存为一个value）
 	 */
 	private static final String BLOCKS_BUCKET_KEY = "blocks";
 
 	/**
-	 * 链状态桶Key
+	 * 旧版本的链状态桶Key（整个桶序列化后存为一个value）
 	 */
 	private static final String CHAINSTATE_BUCKET_KEY = "chainstate";
 
+	/**
+	 * 旧版本区块桶中最新一个区块的Key
+	 */
+	private static final String LEGACY_LAST_BLOCK_KEY = "l";
+
+	/**
+	 * 旧版本默认列族中的区块数据前缀，key = 'b' + 区块hash
+	 */
+	private static final byte LEGACY_BLOCK_PREFIX = 'b';
+
+	/**
+	 * 旧版本默认列族中的UTXO数据前缀，key = 'c' + 交易id
+	 */
+	private static final byte LEGACY_UTXO_PREFIX = 'c';
+
 	/**
 	 * 最新一个区块
 	 */
-	private static final String LAST_BLOCK_KEY = "l";
+	private static final byte[] LAST_BLOCK_KEY = {'l'};
+
+	/**
+	 * 交易索引是否覆盖了整条链
+	 */
+	private static final byte[] TX_INDEX_COMPLETE_KEY = {'t'};
+
+	/**
+	 * chainstate 已经包含的最新区块hash值的key，UTXO缓存没有刷盘时会落后于最新区块
+	 */
+	private static final byte[] CHAINSTATE_TIP_KEY = {'c'};
+
+	/**
+	 * chainstate 格式版本的key
+	 */
+	private static final byte[] CHAINSTATE_VERSION_KEY = {'v'};
+
+	/**
+	 * chainstate 格式版本，1 为每个交易一条记录的旧格式，2 为每个输出点一条记录，3 增加了地址余额，
+	 * 4 地址索引按金额排序，5 旧版本交易输出的地址索引和余额去掉了公钥hash后面的地址校验码
+	 */
+	private static final int CHAINSTATE_VERSION = 5;
+
+	/**
+	 * 批量导入UTXO时每个地址索引批量写入的记录数
+	 */
+	private static final int INGEST_BATCH_SIZE = 100000;
+
+	/**
+	 * 批量导入UTXO时待导入的SST文件，位于数据目录中
+	 */
+	private static final String UTXO_INGEST_FILE = "chainstate-ingest.sst";
+
+	/**
+	 * 区块高度索引前缀，key = 'h' + 区块高度
+	 */
+	private static final byte HEIGHT_PREFIX = 'h';
+
+	/**
+	 * 区块索引记录前缀，key = 'r' + 区块hash
+	 */
+	private static final byte BLOCK_RECORD_PREFIX = 'r';
+
+	/**
+	 * 区块文件位置前缀，key = 'f' + 区块hash
+	 */
+	private static final byte BLOCK_FILE_PREFIX = 'f';
+
+	/**
+	 * hash值的字节长度
+	 */
+	private static final int HASH_LENGTH = 32;
 
 	private volatile static RocksDBUtils instance;
 
@@ -56,22 +243,58 @@ public class RocksDBUtils {
 	private RocksDB db;
 
 	/**
-	 * block buckets
+	 * 解码后的区块缓存，缓存中的区块都已冻结，不允许修改
 	 */
-	private Map<String, byte[]> blocksBucket;
+	private final Cache<String, Block> blockCache = CacheBuilder.newBuilder()
+			.maximumSize(BLOCK_OBJECT_CACHE_SIZE)
+			.recordStats()
+			.build();
 
 	/**
-	 * chainstate buckets
+	 * 区块头缓存
 	 */
-	private Map<String, byte[]> chainstateBucket;
+	private final Cache<String, BlockHeader> headerCache = CacheBuilder.newBuilder()
+			.maximumSize(HEADER_CACHE_SIZE)
+			.recordStats()
+			.build();
 
-	public Map<String, byte[]> getChainstateBucket() {
-		return chainstateBucket;
-	}
+	/**
+	 * 需要在关闭数据库时释放的本地资源
+	 */
+	private final List<AutoCloseable> resources = Lists.newArrayList();
+
+	private ColumnFamilyHandle defaultHandle;
+
+	private ColumnFamilyHandle blocksHandle;
+
+	private ColumnFamilyOptions chainstateOptions;
+
+	private ColumnFamilyHandle chainstateHandle;
+
+	private ColumnFamilyHandle blockIndexHandle;
+
+	private ColumnFamilyHandle txIndexHandle;
+
+	private ColumnFamilyOptions addressIndexOptions;
+
+	private ColumnFamilyHandle addressIndexHandle;
+
+	private ColumnFamilyOptions balanceOptions;
+
+	private ColumnFamilyHandle balanceHandle;
+
+	private ColumnFamilyHandle metaHandle;
+
+	private BlockFileStore blockFileStore;
+
+	/**
+	 * 批量提交使用的写配置
+	 */
+	private WriteOptions commitOptions;
 
 	private RocksDBUtils() {
 		openDB();
-		initBlockBucket();
+		migrateDefaultColumnFamily();
 	}
 
 	/**
@@ -79,29 +302,138 @@ public class RocksDBUtils {
 	 */
 	private void openDB() {
 		try {
-			db = RocksDB.open(DB_FILE);
+			DBOptions dbOptions = register(new DBOptions()
+					.setCreateIfMissing(true)
+					.setCreateMissingColumnFamilies(true)
+					.setIncreaseParallelism(Math.max(2, Runtime.getRuntime().availableProcessors())));
+			org.rocksdb.Cache sharedCache = register(new LRUCache(BLOCK_CACHE_SIZE));
+
+			ColumnFamilyOptions blocksOptions = register(new ColumnFamilyOptions()
+					.setWriteBufferSize(BLOCKS_WRITE_BUFFER_SIZE)
+					.setCompressionType(CompressionType.LZ4_COMPRESSION)
+					.setBottommostCompressionType(CompressionType.ZSTD_COMPRESSION)
+					.setTableFormatConfig(new BlockBasedTableConfig()
+							.setBlockCache(sharedCache)
+							.setBlockSize(BLOCKS_BLOCK_SIZE)));
+			chainstateOptions = pointLookupOptions(sharedCache);
+			ColumnFamilyOptions blockIndexOptions = pointLookupOptions(sharedCache);
+			ColumnFamilyOptions txIndexOptions = pointLookupOptions(sharedCache);
+			addressIndexOptions = pointLookupOptions(sharedCache);
+			balanceOptions = pointLookupOptions(sharedCache);
+			ColumnFamilyOptions defaultOptions = register(new ColumnFamilyOptions());
+
+			List<ColumnFamilyDescriptor> descriptors = Arrays.asList(
+					new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, defaultOptions),
+					new ColumnFamilyDescriptor(BLOCKS_FAMILY.getBytes(), blocksOptions),
+					new ColumnFamilyDescriptor(CHAINSTATE_FAMILY.getBytes(), chainstateOptions),
+					new ColumnFamilyDescriptor(BLOCK_INDEX_FAMILY.getBytes(), blockIndexOptions),
+					new ColumnFamilyDescriptor(TX_INDEX_FAMILY.getBytes(), txIndexOptions),
+					new ColumnFamilyDescriptor(ADDRESS_INDEX_FAMILY.getBytes(), addressIndexOptions),
+					new ColumnFamilyDescriptor(META_FAMILY.getBytes(), defaultOptions),
+					new ColumnFamilyDescriptor(BALANCE_FAMILY.getBytes(), balanceOptions));
+			List<ColumnFamilyHandle> handles = Lists.newArrayList();
+			db = RocksDB.open(dbOptions, DB_FILE, descriptors, handles);
+			defaultHandle = handles.get(0);
+			blocksHandle = handles.get(1);
+			chainstateHandle = handles.get(2);
+			blockIndexHandle = handles.get(3);
+			txIndexHandle = handles.get(4);
+			addressIndexHandle = handles.get(5);
+			metaHandle = handles.get(6);
+			balanceHandle = handles.get(7);
+			commitOptions = register(new WriteOptions().setSync(SYNC_COMMIT));
+			blockFileStore = register(new BlockFileStore(new File(BLOCK_FILE_DIR), BLOCK_FILE_SIZE, SYNC_COMMIT));
 		} catch (RocksDBException e) {
 			throw new RuntimeException("Fail to open db ! ", e);
 		}
 	}
 
 	/**
-	 * 初始化blocks数据桶
+	 * 以随机点查为主的列族配置
+	 *
+	 * @param sharedCache 共享的block cache
+	 * @return
 	 */
-	private void initBlockBucket() {
-		try {
+	private ColumnFamilyOptions pointLookupOptions(org.rocksdb.Cache sharedCache) {
+		Filter bloomFilter = register(new BloomFilter(BLOOM_BITS_PER_KEY, false));
+		return register(new ColumnFamilyOptions()
+				.setWriteBufferSize(POINT_LOOKUP_WRITE_BUFFER_SIZE)
+				.setCompressionType(CompressionType.LZ4_COMPRESSION)
+				.setLevelCompactionDynamicLevelBytes(true)
+				.setTableFormatConfig(new BlockBasedTableConfig()
+						.setBlockCache(sharedCache)
+						.setFilter(bloomFilter)
+						.setCacheIndexAndFilterBlocks(true)
+						.setPinL0FilterAndIndexBlocksInCache(true)));
+	}
+
+	/**
+	 * 登记需要在关闭数据库时释放的本地资源
+	 *
+	 * @param resource
+	 * @return
+	 */
+	private <T extends AutoCloseable> T register(T resource) {
+		resources.add(resource);
+		return resource;
+	}
 
+	/**
+	 * 将旧版本默认列族中的数据迁移到各自的列族中，只在第一次打开旧数据库时执行
+	 * <p>
+	 * 旧数据有两种格式：整个桶序列化后存为一个value，以及带单字节前缀的独立key
+	 */
+	private void migrateDefaultColumnFamily() {
+		try (WriteBatch batch = new WriteBatch(); WriteOptions writeOptions = new WriteOptions()) {
 			byte[] blockBucketKey = SerializeUtils.serialize(BLOCKS_BUCKET_KEY);
-			byte[] blockBucketBytes = db.get(blockBucketKey);
-			if (blockBucketBytes == null) {
-				blocksBucket = Maps.newHashMap();
-				db.put(blockBucketKey, SerializeUtils.serialize(blocksBucket));
-			} else {
-				blocksBucket = (Map) SerializeUtils.deserialize(blockBucketBytes);
+			byte[] chainstateBucketKey = SerializeUtils.serialize(CHAINSTATE_BUCKET_KEY);
+			byte[] blockBucketBytes = db.get(defaultHandle, blockBucketKey);
+			if (blockBucketBytes != null) {
+				Map<String, byte[]> blocksBucket = (Map) SerializeUtils.deserialize(blockBucketBytes);
+				for (Map.Entry<String, byte[]> entry : blocksBucket.entrySet()) {
+					if (LEGACY_LAST_BLOCK_KEY.equals(entry.getKey())) {
+						String lastBlockHash = (String) SerializeUtils.deserialize(entry.getValue());
+						batch.put(metaHandle, LAST_BLOCK_KEY, decodeHex(lastBlockHash));
+					} else {
+						batch.put(blocksHandle, decodeHex(entry.getKey()), entry.getValue());
+					}
+				}
+				batch.delete(defaultHandle, blockBucketKey);
+			}
+			byte[] chainstateBucketBytes = db.get(defaultHandle, chainstateBucketKey);
+			if (chainstateBucketBytes != null) {
+				Map<String, byte[]> chainstateBucket = (Map) SerializeUtils.deserialize(chainstateBucketBytes);
+				for (Map.Entry<String, byte[]> entry : chainstateBucket.entrySet()) {
+					batch.put(chainstateHandle, decodeHex(entry.getKey()), entry.getValue());
+				}
+				batch.delete(defaultHandle, chainstateBucketKey);
 			}
 
+			try (RocksIterator iterator = db.newIterator(defaultHandle)) {
+				for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+					byte[] key = iterator.key();
+					if (Arrays.equals(key, LAST_BLOCK_KEY)) {
+						batch.put(metaHandle, LAST_BLOCK_KEY, iterator.value());
+					} else if (key.length == HASH_LENGTH + 1 && key[0] == LEGACY_BLOCK_PREFIX) {
+						batch.put(blocksHandle, Arrays.copyOfRange(key, 1, key.length), iterator.value());
+					} else if (key.length == HASH_LENGTH + 1 && key[0] == LEGACY_UTXO_PREFIX) {
+						batch.put(chainstateHandle, Arrays.copyOfRange(key, 1, key.length), iterator.value());
+					} else {
+						continue;
+					}
+					batch.delete(defaultHandle, key);
+				}
+			}
+
+			if (batch.count() == 0) {
+				return;
+			}
+			logger.info("start to migrate legacy data into column families");
+			writeOptions.setSync(true);
+			db.write(writeOptions, batch);
+			logger.info("Migrate legacy data finished ! ");
 		} catch (RocksDBException e) {
-			throw new RuntimeException("Fail to init block bucket ! ", e);
+			throw new RuntimeException("Fail to migrate legacy data ! ", e);
 		}
 	}
 
@@ -111,25 +443,42 @@ public class RocksDBUtils {
 	 * @param tipBlockHash
 	 */
 	public void putLastBlockHash(String tipBlockHash) {
-		blocksBucket.put(LAST_BLOCK_KEY, SerializeUtils.serialize(tipBlockHash));
 		try {
-			db.put(SerializeUtils.serialize(BLOCKS_BUCKET_KEY), SerializeUtils.serialize(blocksBucket));
+			db.put(metaHandle, LAST_BLOCK_KEY, decodeHex(tipBlockHash));
 		} catch (RocksDBException e) {
 			throw new RuntimeException("Fail to put last block hash ! ", e);
 		}
 	}
 
+	/**
+	 * 将最新一个区块的hash值加入到批量写入中
+	 *
+	 * @param batch
+	 * @param tipBlockHash
+	 */
+	public void putLastBlockHash(WriteBatch batch, String tipBlockHash) {
+		try {
+			batch.put(metaHandle, LAST_BLOCK_KEY, decodeHex(tipBlockHash));
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to stage last block hash ! ", e);
+		}
+	}
+
 	/**
 	 * 查询最新一个区块的hash值
 	 *
 	 * @return
 	 */
 	public String getLastBlockHash() {
-		byte[] lastBlockHashBytes = blocksBucket.get(LAST_BLOCK_KEY);
-		if (lastBlockHashBytes != null) {
-			return (String) SerializeUtils.deserialize(lastBlockHashBytes);
+		try {
+			byte[] lastBlockHashBytes = db.get(metaHandle, LAST_BLOCK_KEY);
+			if (lastBlockHashBytes != null) {
+				return Hex.encodeHexString(lastBlockHashBytes);
+			}
+			return "";
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to get last block hash ! ", e);
 		}
-		return "";
 	}
 
 
@@ -139,27 +488,375 @@ public class RocksDBUtils {
 	 * @param block
 	 */
 	public void putBlock(Block block) {
+		try {
+			if (FILE_BLOCK_STORE) {
+				db.put(blockIndexHandle, blockFileKey(block.getHash()), appendBlockFile(block));
+			} else {
+				db.put(blocksHandle, decodeHex(block.getHash()), encodeBlock(block));
+			}
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to put block ! blockHash=" + block.getHash(), e);
+		}
+	}
 
+	/**
+	 * 将区块加入到批量写入中
+	 *
+	 * @param batch
+	 * @param block
+	 */
+	public void putBlock(WriteBatch batch, Block block) {
 		try {
-			blocksBucket.put(block.getHash(), SerializeUtils.serialize(block));
-			db.put(SerializeUtils.serialize(BLOCKS_BUCKET_KEY), SerializeUtils.serialize(blocksBucket));
+			if (FILE_BLOCK_STORE) {
+				batch.put(blockIndexHandle, blockFileKey(block.getHash()), appendBlockFile(block));
+			} else {
+				batch.put(blocksHandle, decodeHex(block.getHash()), encodeBlock(block));
+			}
 		} catch (RocksDBException e) {
-			e.printStackTrace();
+			throw new RuntimeException("Fail to stage block ! blockHash=" + block.getHash(), e);
 		}
 	}
 
 	/**
 	 * 查询区块
+	 * <p>
+	 * 返回的区块已冻结并且可能被多处共享，不允许修改
 	 *
 	 * @param blockHash
 	 * @return
 	 */
 	public Block getBlock(String blockHash) {
-		byte[] block = blocksBucket.get(blockHash);
-		if (block != null) {
-			return (Block) SerializeUtils.deserialize(block);
+		Block cachedBlock = blockCache.getIfPresent(blockHash);
+		if (cachedBlock != null) {
+			return cachedBlock;
+		}
+		try {
+			Block block = readBlock(blockHash);
+			if (block == null) {
+				return null;
+			}
+			block.freeze();
+			blockCache.put(blockHash, block);
+			headerCache.put(blockHash, BlockHeader.of(block));
+			return block;
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to get block ! blockHash=" + blockHash, e);
+		}
+	}
+
+	/**
+	 * 查询区块但不放入缓存，用于重建索引等按顺序遍历整条链的场景，避免把热点区块挤出缓存
+	 *
+	 * @param blockHash
+	 * @return
+	 */
+	public Block getBlockWithoutCache(String blockHash) {
+		Block cachedBlock = blockCache.getIfPresent(blockHash);
+		if (cachedBlock != null) {
+			return cachedBlock;
+		}
+		try {
+			return readBlock(blockHash);
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to get block ! blockHash=" + blockHash, e);
+		}
+	}
+
+	/**
+	 * 编码区块，新区块使用规范编码，从旧数据中读出的区块保持原来的 Kryo 格式
+	 *
+	 * @param block
+	 * @return
+	 */
+	private static byte[] encodeBlock(Block block) {
+		if (block.isLegacyEncoding()) {
+			return SerializeUtils.serialize(block);
+		}
+		return CanonicalCodec.encodeBlock(block);
+	}
+
+	/**
+	 * 将区块追加到区块文件中
+	 *
+	 * @param block
+	 * @return 区块位置的编码，文件编号(4字节) + 起始位置(8字节) + 长度(4字节)
+	 */
+	private byte[] appendBlockFile(Block block) {
+		BlockFilePosition position = blockFileStore.append(encodeBlock(block));
+		return ByteBuffer.allocate(Integer.BYTES + Long.BYTES + Integer.BYTES)
+				.putInt(position.getFileNumber())
+				.putLong(position.getOffset())
+				.putInt(position.getLength())
+				.array();
+	}
+
+	/**
+	 * 读取并解码区块，先查找区块文件中的位置，找不到时再查找 blocks 列族
+	 *
+	 * @param blockHash
+	 * @return 区块不存在时返回null
+	 * @throws RocksDBException
+	 */
+	private Block readBlock(String blockHash) throws RocksDBException {
+		byte[] positionBytes = db.get(blockIndexHandle, blockFileKey(blockHash));
+		if (positionBytes != null) {
+			ByteBuffer buffer = ByteBuffer.wrap(positionBytes);
+			BlockFilePosition position = new BlockFilePosition(buffer.getInt(), buffer.getLong(), buffer.getInt());
+			ByteBuffer blockBuffer = blockFileStore.read(position);
+			if (CanonicalCodec.isCanonicalBlock(blockBuffer)) {
+				return CanonicalCodec.decodeBlock(blockBuffer);
+			}
+			byte[] blockBytes = new byte[blockBuffer.remaining()];
+			blockBuffer.get(blockBytes);
+			return decodeBlock(blockBytes);
+		}
+
+		byte[] blockBytes = db.get(blocksHandle, decodeHex(blockHash));
+		if (blockBytes == null) {
+			return null;
+		}
+		return decodeBlock(blockBytes);
+	}
+
+	private static byte[] blockFileKey(String blockHash) {
+		return ArrayUtils.insert(0, decodeHex(blockHash), BLOCK_FILE_PREFIX);
+	}
+
+	/**
+	 * 解码区块，兼容旧的 Kryo 格式，Kryo 格式的区块以及其中的交易会被标记为旧格式，以便按原来的方式计算hash
+	 *
+	 * @param blockBytes
+	 * @return
+	 */
+	private static Block decodeBlock(byte[] blockBytes) {
+		if (CanonicalCodec.isCanonicalBlock(blockBytes)) {
+			return CanonicalCodec.decodeBlock(blockBytes);
+		}
+		Block block = (Block) SerializeUtils.deserialize(blockBytes);
+		block.setLegacyEncoding(true);
+		return block;
+	}
+
+	/**
+	 * 查询区块头，只需要区块头时优先使用，区块头缓存比区块缓存大得多
+	 *
+	 * @param blockHash
+	 * @return
+	 */
+	public BlockHeader getBlockHeader(String blockHash) {
+		BlockHeader header = headerCache.getIfPresent(blockHash);
+		if (header != null) {
+			return header;
+		}
+		Block block = this.getBlock(blockHash);
+		return block == null ? null : BlockHeader.of(block);
+	}
+
+	/**
+	 * 区块缓存的命中统计
+	 *
+	 * @return
+	 */
+	public CacheStats getBlockCacheStats() {
+		return blockCache.stats();
+	}
+
+	/**
+	 * 区块头缓存的命中统计
+	 *
+	 * @return
+	 */
+	public CacheStats getHeaderCacheStats() {
+		return headerCache.stats();
+	}
+
+	/**
+	 * 将区块索引记录以及高度索引加入到批量写入中
+	 *
+	 * @param batch
+	 * @param entry
+	 */
+	public void putBlockIndexEntry(WriteBatch batch, BlockIndexEntry entry) {
+		try {
+			byte[] hash = decodeHex(entry.getHash());
+			byte[] chainWork = entry.getChainWork().toByteArray();
+			byte[] record = ByteBuffer.allocate(Long.BYTES + chainWork.length)
+					.putLong(entry.getHeight())
+					.put(chainWork)
+					.array();
+			batch.put(blockIndexHandle, heightKey(entry.getHeight()), hash);
+			batch.put(blockIndexHandle, ArrayUtils.insert(0, hash, BLOCK_RECORD_PREFIX), record);
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to stage block index entry ! blockHash=" + entry.getHash(), e);
+		}
+	}
+
+	/**
+	 * 查询区块索引记录
+	 *
+	 * @param blockHash
+	 * @return 没有索引时返回null
+	 */
+	public BlockIndexEntry getBlockIndexEntry(String blockHash) {
+		try {
+			byte[] record = db.get(blockIndexHandle, ArrayUtils.insert(0, decodeHex(blockHash), BLOCK_RECORD_PREFIX));
+			if (record == null) {
+				return null;
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(record);
+			long height = buffer.getLong();
+			byte[] chainWork = new byte[buffer.remaining()];
+			buffer.get(chainWork);
+			return new BlockIndexEntry(blockHash, height, new BigInteger(chainWork));
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to get block index entry ! blockHash=" + blockHash, e);
+		}
+	}
+
+	/**
+	 * 根据区块高度查询区块hash
+	 *
+	 * @param height
+	 * @return 没有索引时返回null
+	 */
+	public String getBlockHashByHeight(long height) {
+		try {
+			byte[] hash = db.get(blockIndexHandle, heightKey(height));
+			return hash == null ? null : Hex.encodeHexString(hash);
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to get block hash by height ! height=" + height, e);
+		}
+	}
+
+	/**
+	 * 按高度顺序查询一段区块的hash
+	 *
+	 * @param fromHeight 起始高度（包含）
+	 * @param toHeight   结束高度（包含）
+	 * @return
+	 */
+	public List<String> getBlockHashesByHeight(long fromHeight, long toHeight) {
+		List<String> hashes = Lists.newArrayList();
+		try (RocksIterator iterator = db.newIterator(blockIndexHandle)) {
+			for (iterator.seek(heightKey(fromHeight)); iterator.isValid(); iterator.next()) {
+				byte[] key = iterator.key();
+				if (key[0] != HEIGHT_PREFIX || ByteBuffer.wrap(key, 1, Long.BYTES).getLong() > toHeight) {
+					break;
+				}
+				hashes.add(Hex.encodeHexString(iterator.value()));
+			}
+		}
+		return hashes;
+	}
+
+	/**
+	 * 区块高度索引的key，高度使用大端序保证按高度排序
+	 *
+	 * @param height
+	 * @return
+	 */
+	private static byte[] heightKey(long height) {
+		return ByteBuffer.allocate(1 + Long.BYTES).put(HEIGHT_PREFIX).putLong(height).array();
+	}
+
+	/**
+	 * 将交易所在的区块位置加入到批量写入中
+	 *
+	 * @param batch
+	 * @param transactionId 交易id
+	 * @param location      交易所在的区块位置
+	 */
+	public void putTransactionLocation(WriteBatch batch, byte[] transactionId, TransactionLocation location) {
+		try {
+			byte[] value = ByteBuffer.allocate(HASH_LENGTH + Integer.BYTES)
+					.put(decodeHex(location.getBlockHash()))
+					.putInt(location.getPosition())
+					.array();
+			batch.put(txIndexHandle, transactionId, value);
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to stage transaction location ! ", e);
+		}
+	}
+
+	/**
+	 * 查询交易所在的区块位置
+	 *
+	 * @param transactionId 交易id
+	 * @return 没有索引时返回null
+	 */
+	public TransactionLocation getTransactionLocation(byte[] transactionId) {
+		try {
+			byte[] value = db.get(txIndexHandle, transactionId);
+			if (value == null) {
+				return null;
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(value);
+			byte[] blockHash = new byte[HASH_LENGTH];
+			buffer.get(blockHash);
+			return new TransactionLocation(Hex.encodeHexString(blockHash), buffer.getInt());
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to get transaction location ! ", e);
+		}
+	}
+
+	/**
+	 * 标记交易索引是否覆盖了整条链
+	 *
+	 * @param batch
+	 * @param complete
+	 */
+	public void putTransactionIndexComplete(WriteBatch batch, boolean complete) {
+		try {
+			if (complete) {
+				batch.put(metaHandle, TX_INDEX_COMPLETE_KEY, new byte[]{1});
+			} else {
+				batch.delete(metaHandle, TX_INDEX_COMPLETE_KEY);
+			}
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to stage transaction index flag ! ", e);
+		}
+	}
+
+	/**
+	 * 交易索引是否覆盖了整条链
+	 *
+	 * @return
+	 */
+	public boolean isTransactionIndexComplete() {
+		try {
+			return db.get(metaHandle, TX_INDEX_COMPLETE_KEY) != null;
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to get transaction index flag ! ", e);
+		}
+	}
+
+	/**
+	 * 将 chainstate 已经包含的最新区块hash值加入到批量写入中，与UTXO数据在同一个批量写入中提交
+	 *
+	 * @param batch
+	 * @param blockHash
+	 */
+	@Override
+	public void putChainStateTip(WriteBatch batch, String blockHash) {
+		try {
+			batch.put(metaHandle, CHAINSTATE_TIP_KEY, decodeHex(blockHash));
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to stage chainstate tip ! ", e);
+		}
+	}
+
+	/**
+	 * 查询 chainstate 已经包含的最新区块hash值
+	 *
+	 * @return 旧数据没有记录时返回null
+	 */
+	public String getChainStateTip() {
+		try {
+			byte[] blockHashBytes = db.get(metaHandle, CHAINSTATE_TIP_KEY);
+			return blockHashBytes == null ? null : Hex.encodeHexString(blockHashBytes);
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to get chainstate tip ! ", e);
 		}
-		return null;
 	}
 
 	/**
@@ -167,18 +864,27 @@ public class RocksDBUtils {
 	 */
 	public void closeDB() {
 		try {
+			for (ColumnFamilyHandle handle : Arrays.asList(defaultHandle, blocksHandle, chainstateHandle,
+					blockIndexHandle, txIndexHandle, addressIndexHandle, metaHandle, balanceHandle)) {
+				handle.close();
+			}
 			db.close();
+			for (AutoCloseable resource : Lists.reverse(resources)) {
+				resource.close();
+			}
 		} catch (Exception e) {
 			throw new RuntimeException("Fail to close db ! ", e);
 		}
 	}
 
 	/**
-	 * 清空chainstate bucket
+	 * 清空chainstate bucket以及依赖它的地址索引和地址余额
 	 */
 	public void cleanChainStateBucket() {
 		try {
-			chainstateBucket.clear();
+			chainstateHandle = recreateColumnFamily(chainstateHandle, CHAINSTATE_FAMILY, chainstateOptions);
+			addressIndexHandle = recreateColumnFamily(addressIndexHandle, ADDRESS_INDEX_FAMILY, addressIndexOptions);
+			balanceHandle = recreateColumnFamily(balanceHandle, BALANCE_FAMILY, balanceOptions);
 		} catch (Exception e) {
 			throw new RuntimeException("Fail to clear chainstate bucket ! ", e);
 		}
@@ -186,46 +892,431 @@ public class RocksDBUtils {
 	}
 
 	/**
-	 * 保存UTXO数据
+	 * 删除并重新创建列族，比逐条删除快得多
 	 *
-	 * @param key
-	 * @param outputs
+	 * @param handle  原列族
+	 * @param name    列族名称
+	 * @param options 列族配置
+	 * @return 新的列族
+	 * @throws RocksDBException
 	 */
-	public void putUTXOs(String key, TransactionOutput[] outputs) {
+	private ColumnFamilyHandle recreateColumnFamily(ColumnFamilyHandle handle, String name,
+													ColumnFamilyOptions options) throws RocksDBException {
+		db.dropColumnFamily(handle);
+		handle.close();
+		return db.createColumnFamily(new ColumnFamilyDescriptor(name.getBytes(), options));
+	}
+
+	/**
+	 * 将一个未花费交易输出加入到批量写入中
+	 * <p>
+	 * chainstate 中每个输出点一条记录，key = 交易id + 交易输出下标(大端)，同一个交易的输出相邻存放；
+	 * value = 创建时的区块高度 + 金额 + 公钥hash，都使用变长编码
+	 *
+	 * @param batch
+	 * @param transactionId 交易id
+	 * @param index         交易输出下标
+	 * @param output        交易输出
+	 * @param height        创建交易输出的区块高度
+	 */
+	@Override
+	public void putUTXO(WriteBatch batch, String transactionId, int index, TransactionOutput output, long height) {
 		try {
-			chainstateBucket.put(key, SerializeUtils.serialize(outputs));
-			db.put(SerializeUtils.serialize(CHAINSTATE_BUCKET_KEY), SerializeUtils.serialize(chainstateBucket));
+			batch.put(chainstateHandle, utxoKey(transactionId, index), encodeUTXO(output, height));
 		} catch (RocksDBException e) {
-			throw new RuntimeException("Fail to put UTXOs into chainstate bucket ! key=" + key, e);
+			throw new RuntimeException("Fail to stage UTXO ! txId=" + transactionId + ", index=" + index, e);
 		}
 	}
 
 	/**
-	 * 根据交易id查询交易输出
+	 * 查询一个未花费交易输出
 	 *
-	 * @param key
+	 * @param transactionId 交易id
+	 * @param index         交易输出下标
+	 * @return 不存在时返回null
+	 */
+	@Override
+	public TransactionOutput getUTXO(String transactionId, int index) {
+		try {
+			byte[] record = db.get(chainstateHandle, utxoKey(transactionId, index));
+			return record == null ? null : decodeUTXO(transactionId, index, record).getOutput();
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to get UTXO from chainstate bucket ! txId=" + transactionId + ", index=" + index, e);
+		}
+	}
+
+	/**
+	 * 将一个交易输出的删除加入到批量写入中，花费交易输出只需要删除一个key
+	 *
+	 * @param batch
+	 * @param transactionId 交易id
+	 * @param index         交易输出下标
+	 */
+	@Override
+	public void deleteUTXO(WriteBatch batch, String transactionId, int index) {
+		try {
+			batch.delete(chainstateHandle, utxoKey(transactionId, index));
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to stage UTXO deletion ! txId=" + transactionId + ", index=" + index, e);
+		}
+	}
+
+	/**
+	 * 查询交易所有未花费交易输出的下标，只扫描以交易id为前缀的记录
+	 *
+	 * @param transactionId 交易id
 	 * @return
 	 */
-	public TransactionOutput[] getUTXOs(String key) {
-		byte[] utxosByte = chainstateBucket.get(key);
-		if (utxosByte != null) {
-			return (TransactionOutput[]) SerializeUtils.deserialize(utxosByte);
+	@Override
+	public List<Integer> getUTXOIndexes(String transactionId) {
+		List<Integer> indexes = Lists.newArrayList();
+		byte[] prefix = decodeHex(transactionId);
+		try (RocksIterator iterator = db.newIterator(chainstateHandle)) {
+			for (iterator.seek(prefix); iterator.isValid(); iterator.next()) {
+				byte[] key = iterator.key();
+				if (key.length != prefix.length + Integer.BYTES || !Arrays.equals(prefix, Arrays.copyOf(key, prefix.length))) {
+					break;
+				}
+				indexes.add(ByteBuffer.wrap(key, prefix.length, Integer.BYTES).getInt());
+			}
+		}
+		return indexes;
+	}
+
+	/**
+	 * 基于一致性快照按key顺序遍历 chainstate 中所有的未花费交易输出
+	 *
+	 * @param consumer
+	 */
+	public void iterateUTXOs(Consumer<UnspentOutput> consumer) {
+		Snapshot snapshot = db.getSnapshot();
+		try (ReadOptions readOptions = new ReadOptions().setSnapshot(snapshot);
+			 RocksIterator iterator = db.newIterator(chainstateHandle, readOptions)) {
+			for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+				byte[] key = iterator.key();
+				int transactionIdLength = key.length - Integer.BYTES;
+				String transactionId = Hex.encodeHexString(Arrays.copyOf(key, transactionIdLength));
+				int index = ByteBuffer.wrap(key, transactionIdLength, Integer.BYTES).getInt();
+				consumer.accept(decodeUTXO(transactionId, index, iterator.value()));
+			}
+		} finally {
+			db.releaseSnapshot(snapshot);
 		}
-		return null;
 	}
 
 	/**
-	 * 删除UTXO数据
+	 * 批量导入未花费交易输出的第一步：把交易输出写入待导入的SST文件，不修改任何数据
+	 * <p>
+	 * 交易输出必须按 chainstate 的key顺序排列。遍历过程中抛出异常时删除SST文件，DB保持原样，
+	 * 调用方可以在遍历过程中完成全部的数据校验，校验通过后再清空 chainstate 并调用 {@link #ingestUTXOs()}。
 	 *
-	 * @param key
+	 * @param utxos 按key顺序排列的未花费交易输出
+	 * @return 写入的个数
 	 */
-	public void deleteUTXOs(String key) {
+	public long prepareUTXOs(Iterator<UnspentOutput> utxos) {
+		File sstFile = new File(DB_FILE, UTXO_INGEST_FILE);
+		long count = 0;
+		boolean prepared = false;
+		try (EnvOptions envOptions = new EnvOptions();
+			 DBOptions dbOptions = new DBOptions();
+			 Options options = new Options(dbOptions, chainstateOptions);
+			 SstFileWriter sstFileWriter = new SstFileWriter(envOptions, options)) {
+			sstFileWriter.open(sstFile.getPath());
+			while (utxos.hasNext()) {
+				UnspentOutput utxo = utxos.next();
+				sstFileWriter.put(utxoKey(utxo.getTransactionId(), utxo.getIndex()), encodeUTXO(utxo.getOutput(), utxo.getHeight()));
+				count++;
+			}
+			if (count > 0) {
+				sstFileWriter.finish();
+			}
+			prepared = count > 0;
+			return count;
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to prepare UTXOs ! ", e);
+		} finally {
+			if (!prepared) {
+				sstFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * 批量导入未花费交易输出的第二步：导入 {@link #prepareUTXOs(Iterator)} 写好的SST文件，调用前需要清空 chainstate
+	 * <p>
+	 * chainstate 数据整体导入，不经过memtable和WAL；导入成功后再遍历 chainstate 生成地址索引和地址余额，
+	 * 地址索引的key顺序不同，使用大批量写入，地址余额在内存中累加，
+	 * 每累计 {@link #INGEST_BATCH_SIZE} 个地址合并写入一次。
+	 */
+	public void ingestUTXOs() {
+		File sstFile = new File(DB_FILE, UTXO_INGEST_FILE);
+		try {
+			if (sstFile.exists()) {
+				try (IngestExternalFileOptions ingestOptions = new IngestExternalFileOptions()) {
+					ingestOptions.setMoveFiles(true);
+					db.ingestExternalFile(chainstateHandle, Collections.singletonList(sstFile.getPath()), ingestOptions);
+				}
+			}
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to ingest UTXOs ! ", e);
+		} finally {
+			sstFile.delete();
+		}
+
+		Map<String, Long> balances = Maps.newHashMap();
+		try (WriteBatch batch = new WriteBatch()) {
+			this.iterateUTXOs(utxo -> {
+				TransactionOutput output = utxo.getOutput();
+				this.putAddressIndex(batch, output.getOwnerPublicKeyHash(), utxo.getTransactionId(), utxo.getIndex(), output.getValue());
+				balances.merge(Hex.encodeHexString(output.getOwnerPublicKeyHash()), (long) output.getValue(), Long::sum);
+				if (batch.count() >= INGEST_BATCH_SIZE) {
+					this.writeBatch(batch);
+					batch.clear();
+				}
+				if (balances.size() >= INGEST_BATCH_SIZE) {
+					this.flushBalances(batch, balances);
+				}
+			});
+			this.flushBalances(batch, balances);
+		}
+	}
+
+	/**
+	 * 把累加的地址余额合并到已经写入的余额中，限制导入UTXO时内存中余额的数量
+	 * <p>
+	 * 合并时需要读取已经写入的余额，所以先提交批量写入中的修改
+	 *
+	 * @param batch
+	 * @param balances key为公钥hash，value为新增的余额，合并后清空
+	 */
+	private void flushBalances(WriteBatch batch, Map<String, Long> balances) {
+		this.writeBatch(batch);
+		batch.clear();
+		for (Map.Entry<String, Long> balance : balances.entrySet()) {
+			byte[] publicKeyHash = decodeHex(balance.getKey());
+			this.putBalance(batch, publicKeyHash, this.getBalance(publicKeyHash) + balance.getValue());
+		}
+		this.writeBatch(batch);
+		batch.clear();
+		balances.clear();
+	}
+
+	/**
+	 * 将 chainstate 的格式版本加入到批量写入中，在重建或者导入UTXO池时写入
+	 *
+	 * @param batch
+	 * @param upToDate false 表示 chainstate 正在重建，下次启动时需要重新构建
+	 */
+	public void putChainStateVersion(WriteBatch batch, boolean upToDate) {
+		try {
+			if (upToDate) {
+				batch.put(metaHandle, CHAINSTATE_VERSION_KEY, ByteBuffer.allocate(Integer.BYTES).putInt(CHAINSTATE_VERSION).array());
+			} else {
+				batch.delete(metaHandle, CHAINSTATE_VERSION_KEY);
+			}
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to stage chainstate version ! ", e);
+		}
+	}
+
+	/**
+	 * chainstate 是否是当前的格式版本，旧格式需要重建UTXO池
+	 *
+	 * @return
+	 */
+	public boolean isChainStateUpToDate() {
+		try {
+			byte[] version = db.get(metaHandle, CHAINSTATE_VERSION_KEY);
+			return version != null && ByteBuffer.wrap(version).getInt() == CHAINSTATE_VERSION;
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to get chainstate version ! ", e);
+		}
+	}
+
+	/**
+	 * chainstate 的key = 交易id + 交易输出下标
+	 *
+	 * @param transactionId
+	 * @param index
+	 * @return
+	 */
+	private static byte[] utxoKey(String transactionId, int index) {
+		byte[] transactionIdBytes = decodeHex(transactionId);
+		return ByteBuffer.allocate(transactionIdBytes.length + Integer.BYTES)
+				.put(transactionIdBytes)
+				.putInt(index)
+				.array();
+	}
+
+	/**
+	 * chainstate 的value = 创建高度 + 金额 + 公钥hash
+	 *
+	 * @param output
+	 * @param height
+	 * @return
+	 */
+	private static byte[] encodeUTXO(TransactionOutput output, long height) {
+		return new BinaryWriter()
+				.writeVarInt(height)
+				.writeVarInt(output.getValue())
+				.writeVarBytes(output.getPublicKeyHash())
+				.toByteArray();
+	}
+
+	private static UnspentOutput decodeUTXO(String transactionId, int index, byte[] record) {
+		BinaryReader reader = new BinaryReader(record);
+		long height = reader.readVarInt();
+		int value = (int) reader.readVarInt();
+		return new UnspentOutput(transactionId, index, new TransactionOutput(value, reader.readVarBytes()), height);
+	}
+
+	/**
+	 * 原子地提交一次批量写入，是否同步刷盘由 blockchain.db.syncCommit 决定
+	 *
+	 * @param batch
+	 */
+	@Override
+	public void writeBatch(WriteBatch batch) {
 		try {
-			chainstateBucket.remove(key);
-			db.put(SerializeUtils.serialize(CHAINSTATE_BUCKET_KEY), SerializeUtils.serialize(chainstateBucket));
+			db.write(commitOptions, batch);
 		} catch (RocksDBException e) {
-			logger.error("Fail to delete UTXOs by key ! key=" + key, e);
-			throw new RuntimeException("Fail to delete UTXOs by key ! key=" + key, e);
+			throw new RuntimeException("Fail to write batch ! ", e);
+		}
+	}
+
+	/**
+	 * 将地址索引加入到批量写入中
+	 *
+	 * @param batch
+	 * @param publicKeyHash 交易输出锁定的公钥hash
+	 * @param transactionId 交易id
+	 * @param index         交易输出下标
+	 * @param value         交易输出的金额
+	 */
+	@Override
+	public void putAddressIndex(WriteBatch batch, byte[] publicKeyHash, String transactionId, int index, int value) {
+		try {
+			batch.put(addressIndexHandle, addressIndexKey(publicKeyHash, value, transactionId, index),
+					ByteBuffer.allocate(Integer.BYTES).putInt(value).array());
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to stage address index ! txId=" + transactionId, e);
+		}
+	}
+
+	/**
+	 * 将地址索引的删除加入到批量写入中
+	 *
+	 * @param batch
+	 * @param publicKeyHash 交易输出锁定的公钥hash
+	 * @param transactionId 交易id
+	 * @param index         交易输出下标
+	 * @param value         交易输出的金额
+	 */
+	@Override
+	public void deleteAddressIndex(WriteBatch batch, byte[] publicKeyHash, String transactionId, int index, int value) {
+		try {
+			batch.delete(addressIndexHandle, addressIndexKey(publicKeyHash, value, transactionId, index));
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to stage address index deletion ! txId=" + transactionId, e);
+		}
+	}
+
+	/**
+	 * 查询公钥hash对应的所有未花费交易输出，只扫描该地址自己的索引，结果按金额从小到大排列
+	 *
+	 * @param publicKeyHash
+	 * @return
+	 */
+	@Override
+	public List<UnspentOutput> getAddressUTXOs(byte[] publicKeyHash) {
+		List<UnspentOutput> utxos = Lists.newArrayList();
+		byte[] prefix = ArrayUtils.insert(0, publicKeyHash, (byte) publicKeyHash.length);
+		try (RocksIterator iterator = db.newIterator(addressIndexHandle)) {
+			for (iterator.seek(prefix); iterator.isValid(); iterator.next()) {
+				byte[] key = iterator.key();
+				if (key.length < prefix.length || !Arrays.equals(prefix, Arrays.copyOf(key, prefix.length))) {
+					break;
+				}
+				ByteBuffer keyBuffer = ByteBuffer.wrap(key, prefix.length, key.length - prefix.length);
+				int value = keyBuffer.getInt();
+				byte[] transactionId = new byte[keyBuffer.remaining() - Integer.BYTES];
+				keyBuffer.get(transactionId);
+				int index = keyBuffer.getInt();
+				utxos.add(new UnspentOutput(Hex.encodeHexString(transactionId), index,
+						new TransactionOutput(value, publicKeyHash)));
+			}
+		}
+		return utxos;
+	}
+
+	/**
+	 * 将地址余额加入到批量写入中，余额为0时删除
+	 *
+	 * @param batch
+	 * @param publicKeyHash 公钥hash
+	 * @param balance       余额
+	 */
+	@Override
+	public void putBalance(WriteBatch batch, byte[] publicKeyHash, long balance) {
+		try {
+			if (balance == 0) {
+				batch.delete(balanceHandle, publicKeyHash);
+			} else {
+				batch.put(balanceHandle, publicKeyHash, ByteBuffer.allocate(Long.BYTES).putLong(balance).array());
+			}
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to stage balance ! ", e);
+		}
+	}
+
+	/**
+	 * 查询地址余额，只需要一次点查
+	 *
+	 * @param publicKeyHash 公钥hash
+	 * @return
+	 */
+	@Override
+	public long getBalance(byte[] publicKeyHash) {
+		try {
+			byte[] balance = db.get(balanceHandle, publicKeyHash);
+			return balance == null ? 0 : ByteBuffer.wrap(balance).getLong();
+		} catch (RocksDBException e) {
+			throw new RuntimeException("Fail to get balance ! ", e);
+		}
+	}
+
+	/**
+	 * 地址索引的key = 公钥hash长度 + 公钥hash + 金额(大端) + 交易id + 交易输出下标，
+	 * 同一个地址的交易输出按金额从小到大排列，选择交易输出时不需要再排序
+	 *
+	 * @param publicKeyHash
+	 * @param value
+	 * @param transactionId
+	 * @param index
+	 * @return
+	 */
+	private static byte[] addressIndexKey(byte[] publicKeyHash, int value, String transactionId, int index) {
+		byte[] transactionIdBytes = decodeHex(transactionId);
+		return ByteBuffer.allocate(1 + publicKeyHash.length + Integer.BYTES + transactionIdBytes.length + Integer.BYTES)
+				.put((byte) publicKeyHash.length)
+				.put(publicKeyHash)
+				.putInt(value)
+				.put(transactionIdBytes)
+				.putInt(index)
+				.array();
+	}
+
+	/**
+	 * 十六进制字符串转化为 byte[]
+	 *
+	 * @param hex
+	 * @return
+	 */
+	private static byte[] decodeHex(String hex) {
+		try {
+			return Hex.decodeHex(hex.toCharArray());
+		} catch (DecoderException e) {
+			throw new IllegalArgumentException("Invalid hex key ! key=" + hex, e);
 		}
 	}
 
@@ -3,15 +3,56 @@ package me.light.blockchain.util;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import me.light.blockchain.core.Block;
+import me.light.blockchain.core.Transaction;
+import me.light.blockchain.core.TransactionInput;
+import me.light.blockchain.core.TransactionOutput;
 
 /**
  * 序列化工具类
+ * <p>
+ * Kryo 实例不是线程安全的，每个线程复用自己的 Kryo 实例以及输入输出缓冲区，
+ * 常用的类使用固定的注册id，序列化时只写入id而不是完整的类名。
+ * 注册只影响写入，旧数据中以类名写入的对象仍然可以正常读取。
+ * 交易id和默克尔树是基于完整类名格式的序列化结果计算的，计算hash时需要使用 {@link #serializeWithClassNames(Object)}。
  *
  * @author light.hao
  * @create 2018-09-20-14:36
  */
 public class SerializeUtils {
 
+	/**
+	 * 输出缓冲区的初始大小
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+
+	/**
+	 * 线程复用的输出缓冲区超过这个大小后不再保留，避免一次大对象序列化长期占用内存
+	 */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * 注册id的起始值，Kryo 默认注册的基本类型占用了前面的id
+	 */
+	private static final int FIRST_REGISTRATION_ID = 20;
+
+	/**
+	 * 需要注册的类，注册id由顺序决定，只能在末尾追加，不能调整顺序
+	 */
+	private static final Class<?>[] REGISTERED_CLASSES = {
+			byte[].class,
+			int[].class,
+			Block.class,
+			Transaction.class,
+			Transaction[].class,
+			TransactionInput.class,
+			TransactionInput[].class,
+			TransactionOutput.class,
+			TransactionOutput[].class,
+	};
+
+	private static final ThreadLocal<KryoContext> CONTEXT = ThreadLocal.withInitial(KryoContext::new);
+
 	/**
 	 * 序列化
 	 *
@@ -19,11 +60,19 @@ public class SerializeUtils {
 	 * @return
 	 */
 	public static byte[] serialize(Object object) {
-		Output output = new Output(4096, -1);
-		new Kryo().writeClassAndObject(output, object);
-		byte[] bytes = output.toBytes();
-		output.close();
-		return bytes;
+		KryoContext context = CONTEXT.get();
+		return context.write(context.kryo, object);
+	}
+
+	/**
+	 * 使用完整类名的格式序列化，与注册前的格式逐字节相同，用于计算hash值
+	 *
+	 * @param object 需要序列化的对象
+	 * @return
+	 */
+	public static byte[] serializeWithClassNames(Object object) {
+		KryoContext context = CONTEXT.get();
+		return context.write(context.unregisteredKryo, object);
 	}
 
 	/**
@@ -33,10 +82,51 @@ public class SerializeUtils {
 	 * @return
 	 */
 	public static Object deserialize(byte[] bytes) {
-		Input input = new Input(bytes);
-		Object obj = new Kryo().readClassAndObject(input);
-		input.close();
-		return obj;
+		KryoContext context = CONTEXT.get();
+		Input input = context.input;
+		input.setBuffer(bytes);
+		try {
+			return context.kryo.readClassAndObject(input);
+		} finally {
+			input.setBuffer(new byte[0]);
+		}
+	}
+
+	/**
+	 * 线程独享的 Kryo 实例以及缓冲区
+	 */
+	private static class KryoContext {
+
+		private final Kryo kryo = new Kryo();
+
+		private final Kryo unregisteredKryo = new Kryo();
+
+		private final Input input = new Input();
+
+		private Output output = new Output(INITIAL_BUFFER_SIZE, -1);
+
+		private KryoContext() {
+			for (int i = 0; i < REGISTERED_CLASSES.length; i++) {
+				kryo.register(REGISTERED_CLASSES[i], FIRST_REGISTRATION_ID + i);
+			}
+		}
+
+		/**
+		 * 使用线程复用的输出缓冲区序列化
+		 *
+		 * @param kryo
+		 * @param object
+		 * @return
+		 */
+		private byte[] write(Kryo kryo, Object object) {
+			output.clear();
+			kryo.writeClassAndObject(output, object);
+			byte[] bytes = output.toBytes();
+			if (output.getBuffer().length > MAX_RETAINED_BUFFER_SIZE) {
+				output = new Output(INITIAL_BUFFER_SIZE, -1);
+			}
+			return bytes;
+		}
 	}
 
 }
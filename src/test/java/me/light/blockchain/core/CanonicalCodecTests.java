@@ -0,0 +1,101 @@
+package me.light.blockchain.core;
+
+import me.light.blockchain.util.BinaryReader;
+import me.light.blockchain.util.BinaryWriter;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 规范编码的测试
+ *
+ * @author light.hao
+ * @create 2026-10-18-15:10
+ */
+public class CanonicalCodecTests {
+
+	private static Transaction newTransaction() {
+		byte[] prevTransactionId = new byte[32];
+		prevTransactionId[0] = 1;
+		TransactionInput input = new TransactionInput(prevTransactionId, 1, new byte[]{1, 2, 3}, new byte[65]);
+		TransactionOutput output = new TransactionOutput(7, new byte[20]);
+		Transaction transaction = new Transaction(null, new TransactionInput[]{input}, new TransactionOutput[]{output});
+		transaction.setTransactionId(transaction.hash());
+		return transaction;
+	}
+
+	@Test
+	public void testTransactionRoundTrip() {
+		Transaction transaction = newTransaction();
+		Transaction decoded = CanonicalCodec.decodeTransaction(CanonicalCodec.encodeTransaction(transaction));
+
+		assertArrayEquals(transaction.getTransactionId(), decoded.getTransactionId());
+		assertArrayEquals(transaction.hash(), decoded.hash());
+		assertArrayEquals(new byte[]{1, 2, 3}, decoded.getInputs()[0].getSignature());
+		assertEquals(7, decoded.getOutputs()[0].getValue());
+	}
+
+	@Test
+	public void testHashIgnoresTransactionId() {
+		Transaction transaction = newTransaction();
+		byte[] hash = transaction.hash();
+		transaction.setTransactionId(new byte[32]);
+		assertArrayEquals(hash, transaction.hash());
+	}
+
+	@Test
+	public void testCoinbaseRoundTrip() {
+		TransactionInput input = new TransactionInput(new byte[]{}, -1, null, "reward".getBytes());
+		TransactionOutput output = new TransactionOutput(10, new byte[20]);
+		Transaction coinbase = new Transaction(null, new TransactionInput[]{input}, new TransactionOutput[]{output});
+		coinbase.setTransactionId(coinbase.hash());
+
+		Transaction decoded = CanonicalCodec.decodeTransaction(CanonicalCodec.encodeTransaction(coinbase));
+		assertTrue(decoded.isCoinBase());
+		assertNull(decoded.getInputs()[0].getSignature());
+		assertArrayEquals("reward".getBytes(), decoded.getInputs()[0].getPublicKey());
+	}
+
+	@Test
+	public void testBlockRoundTrip() {
+		Block block = new Block(Hex.encodeHexString(new byte[32]).replace('0', 'a'), "",
+				new Transaction[]{newTransaction()}, 1537000000L);
+		block.setNonce(12345);
+
+		byte[] bytes = CanonicalCodec.encodeBlock(block);
+		assertTrue(CanonicalCodec.isCanonicalBlock(bytes));
+
+		Block decoded = CanonicalCodec.decodeBlock(bytes);
+		assertEquals(block.getHash(), decoded.getHash());
+		assertEquals("", decoded.getPreviousHash());
+		assertEquals(block.getTimeStamp(), decoded.getTimeStamp());
+		assertEquals(block.getNonce(), decoded.getNonce());
+		assertArrayEquals(block.hashTransaction(), decoded.hashTransaction());
+	}
+
+	@Test
+	public void testHeaderLength() {
+		BinaryWriter writer = new BinaryWriter();
+		CanonicalCodec.writeHeader(writer, "", new byte[32], 1L, 20, 2L);
+		assertEquals(CanonicalCodec.HEADER_LENGTH, writer.size());
+	}
+
+	@Test
+	public void testVarIntBoundaries() {
+		long[] values = {0, 0xFC, 0xFD, 0xFFFF, 0x10000, 0xFFFFFFFFL, 0x100000000L};
+		int[] sizes = {1, 1, 3, 3, 5, 5, 9};
+		for (int i = 0; i < values.length; i++) {
+			BinaryWriter writer = new BinaryWriter();
+			writer.writeVarInt(values[i]);
+			assertEquals(sizes[i], writer.size());
+			assertEquals(values[i], new BinaryReader(writer.toByteArray()).readVarInt());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNonCanonicalVarIntRejected() {
+		new BinaryReader(new byte[]{(byte) 0xFD, 0x01, 0x00}).readVarInt();
+	}
+
+}
@@ -0,0 +1,83 @@
+package me.light.blockchain.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 交易输入选择策略的测试
+ *
+ * @author light.hao
+ * @create 2026-10-19-00:30
+ */
+public class CoinSelectorTests {
+
+	@Test
+	public void testSelect() {
+		List<UnspentOutput> utxos = utxos(1, 2, 5, 10, 10, 20);
+
+		assertEquals(values(20, 10), values(CoinSelector.LARGEST_FIRST.select(utxos, 25)));
+		assertEquals(values(20, 5), values(CoinSelector.BRANCH_AND_BOUND.select(utxos, 25)));
+		assertEquals(values(10), values(CoinSelector.SMALLEST_SUFFICIENT.select(utxos, 6)));
+
+		// 没有恰好相等的组合或者单个足够的交易输出时退回到 LARGEST_FIRST
+		assertEquals(values(20, 10, 10, 5, 2), values(CoinSelector.BRANCH_AND_BOUND.select(utxos(2, 5, 10, 10, 20), 46)));
+		assertEquals(values(20, 10), values(CoinSelector.SMALLEST_SUFFICIENT.select(utxos, 21)));
+
+		assertTrue(CoinSelector.BRANCH_AND_BOUND.select(utxos, 49).isEmpty());
+		assertEquals(CoinSelector.SMALLEST_SUFFICIENT, CoinSelector.of("smallest"));
+	}
+
+	@Test
+	public void testBranchAndBoundWithEqualValues() {
+		List<UnspentOutput> utxos = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			utxos.add(new UnspentOutput("tx" + i, 0, new TransactionOutput(10, new byte[20])));
+		}
+		utxos.add(new UnspentOutput("tx", 0, new TransactionOutput(1000, new byte[20])));
+		assertEquals(3, CoinSelector.BRANCH_AND_BOUND.select(utxos, 30).size());
+		assertEquals(values(1000, 10, 10), values(CoinSelector.BRANCH_AND_BOUND.select(utxos, 1020)));
+	}
+
+	@Test
+	public void testRejectNonPositiveTarget() {
+		// 目标金额不是正数时直接拒绝，空的选择结果只表示余额不足
+		for (CoinSelector selector : CoinSelector.values()) {
+			for (long target : new long[]{0, -5}) {
+				try {
+					selector.select(utxos(1, 2), target);
+					fail("Expected invalid target: " + selector.getName() + " " + target);
+				} catch (IllegalArgumentException e) {
+					assertTrue(e.getMessage(), e.getMessage().contains("Invalid target"));
+				}
+			}
+		}
+	}
+
+	private static List<UnspentOutput> utxos(int... values) {
+		List<UnspentOutput> utxos = new ArrayList<>();
+		for (int i = 0; i < values.length; i++) {
+			utxos.add(new UnspentOutput("tx" + i, i, new TransactionOutput(values[i], new byte[20])));
+		}
+		return utxos;
+	}
+
+	private static List<Integer> values(int... values) {
+		List<Integer> list = new ArrayList<>();
+		for (int value : values) {
+			list.add(value);
+		}
+		return list;
+	}
+
+	private static List<Integer> values(List<UnspentOutput> utxos) {
+		List<Integer> list = new ArrayList<>();
+		for (UnspentOutput utxo : utxos) {
+			list.add(utxo.getOutput().getValue());
+		}
+		return list;
+	}
+}
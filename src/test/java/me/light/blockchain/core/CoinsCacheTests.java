@@ -0,0 +1,217 @@
+package me.light.blockchain.core;
+
+import com.google.common.collect.Maps;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rocksdb.RocksDB;
+import org.rocksdb.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * UTXO写回缓存的测试，链状态存储使用内存中的实现
+ *
+ * @author light.hao
+ * @create 2026-10-19-10:50
+ */
+public class CoinsCacheTests {
+
+	private static final String TX1 = "01";
+
+	private static final String TX2 = "02";
+
+	private final byte[] alice = new byte[]{1};
+
+	private final byte[] bob = new byte[]{2};
+
+	private final MemoryCoinsView view = new MemoryCoinsView();
+
+	private final CoinsCache cache = new CoinsCache(view);
+
+	@BeforeClass
+	public static void loadLibrary() {
+		// 刷盘时创建的批量写入依赖本地库
+		RocksDB.loadLibrary();
+	}
+
+	@Test
+	public void testWriteBack() {
+		cache.addCoin(TX1, 0, new TransactionOutput(5, alice), 1, false);
+		assertEquals(5, cache.getCoin(TX1, 0).getValue());
+		assertEquals(5, cache.getBalance(alice));
+		assertNull(view.getUTXO(TX1, 0));
+
+		cache.setBestBlockHash("aa");
+		cache.flush();
+		assertEquals(5, view.getUTXO(TX1, 0).getValue());
+		assertEquals(5, view.getBalance(alice));
+		assertEquals(1, view.getAddressUTXOs(alice).size());
+		assertEquals("aa", view.tip);
+		assertEquals(0, cache.getSize());
+
+		// DB中已经存在的交易输出被花费后，刷盘时删除
+		assertEquals(5, cache.spendCoin(TX1, 0).getValue());
+		assertNull(cache.getCoin(TX1, 0));
+		assertNull(cache.spendCoin(TX1, 0));
+		assertEquals(0, cache.getBalance(alice));
+		assertTrue(cache.getAddressUTXOs(alice).isEmpty());
+		assertFalse(cache.hasCoins(TX1));
+		assertNotNull(view.getUTXO(TX1, 0));
+
+		cache.flush();
+		assertNull(view.getUTXO(TX1, 0));
+		assertTrue(view.getAddressUTXOs(alice).isEmpty());
+		assertEquals(0, view.getBalance(alice));
+	}
+
+	@Test
+	public void testFreshCoinSpentBeforeFlushIsNeverWritten() {
+		cache.addCoin(TX1, 0, new TransactionOutput(5, alice), 1, false);
+		assertTrue(cache.hasCoins(TX1));
+		cache.spendCoin(TX1, 0);
+		assertFalse(cache.hasCoins(TX1));
+		assertTrue(cache.getAddressUTXOs(alice).isEmpty());
+
+		cache.flush();
+		assertEquals(0, view.writes);
+		assertNull(view.getUTXO(TX1, 0));
+		assertEquals(0, view.getBalance(alice));
+	}
+
+	@Test
+	public void testAddressUTXOsMergeCacheAndStore() {
+		view.add(TX1, 0, new TransactionOutput(7, alice));
+		view.add(TX1, 1, new TransactionOutput(4, alice));
+		cache.addCoin(TX2, 0, new TransactionOutput(9, alice), 2, false);
+		cache.addCoin(TX2, 1, new TransactionOutput(3, alice), 2, false);
+		cache.addCoin(TX2, 2, new TransactionOutput(6, bob), 2, false);
+		cache.spendCoin(TX1, 0);
+		cache.spendCoin(TX2, 0);
+
+		assertEquals(listOf(3, 4), values(cache.getAddressUTXOs(alice)));
+		assertEquals(listOf(6), values(cache.getAddressUTXOs(bob)));
+		assertEquals(7, cache.getBalance(alice));
+		assertEquals(6, cache.getBalance(bob));
+
+		cache.flush();
+		assertEquals(listOf(3, 4), values(view.getAddressUTXOs(alice)));
+		assertEquals(7, view.getBalance(alice));
+		assertEquals(6, view.getBalance(bob));
+	}
+
+	@Test
+	public void testCoinbaseOverwritesStoredCoin() {
+		// 旧数据中交易id重复的coinbase交易覆盖DB中已有的交易输出，余额不能重复累计
+		view.add(TX1, 0, new TransactionOutput(10, alice));
+		cache.addCoin(TX1, 0, new TransactionOutput(10, alice), 3, true);
+		assertEquals(10, cache.getBalance(alice));
+		assertEquals(1, cache.getAddressUTXOs(alice).size());
+
+		// 覆盖后的交易输出不是fresh，花费后刷盘时需要删除
+		cache.spendCoin(TX1, 0);
+		cache.flush();
+		assertNull(view.getUTXO(TX1, 0));
+		assertEquals(0, view.getBalance(alice));
+	}
+
+	private static List<Integer> values(List<UnspentOutput> utxos) {
+		return utxos.stream().map(utxo -> utxo.getOutput().getValue()).collect(Collectors.toList());
+	}
+
+	private static List<Integer> listOf(Integer... values) {
+		List<Integer> list = new ArrayList<>();
+		for (Integer value : values) {
+			list.add(value);
+		}
+		return list;
+	}
+
+	/**
+	 * 内存中的链状态存储，写入直接生效，忽略批量写入
+	 */
+	private static class MemoryCoinsView implements CoinsView {
+
+		private final Map<String, TransactionOutput> utxos = Maps.newTreeMap();
+
+		private final Map<String, Long> balances = Maps.newHashMap();
+
+		private String tip;
+
+		private int writes;
+
+		void add(String transactionId, int index, TransactionOutput output) {
+			utxos.put(transactionId + ":" + index, output);
+			balances.merge(Hex.encodeHexString(output.getOwnerPublicKeyHash()), (long) output.getValue(), Long::sum);
+		}
+
+		@Override
+		public TransactionOutput getUTXO(String transactionId, int index) {
+			return utxos.get(transactionId + ":" + index);
+		}
+
+		@Override
+		public List<Integer> getUTXOIndexes(String transactionId) {
+			return utxos.keySet().stream()
+					.filter(key -> key.startsWith(transactionId + ":"))
+					.map(key -> Integer.parseInt(key.substring(key.lastIndexOf(':') + 1)))
+					.collect(Collectors.toList());
+		}
+
+		@Override
+		public List<UnspentOutput> getAddressUTXOs(byte[] publicKeyHash) {
+			return utxos.entrySet().stream()
+					.filter(entry -> entry.getValue().isLockedWithKey(publicKeyHash))
+					.map(entry -> new UnspentOutput(entry.getKey().substring(0, entry.getKey().lastIndexOf(':')),
+							Integer.parseInt(entry.getKey().substring(entry.getKey().lastIndexOf(':') + 1)), entry.getValue()))
+					.sorted(Comparator.comparingInt(utxo -> utxo.getOutput().getValue()))
+					.collect(Collectors.toList());
+		}
+
+		@Override
+		public long getBalance(byte[] publicKeyHash) {
+			return balances.getOrDefault(Hex.encodeHexString(publicKeyHash), 0L);
+		}
+
+		@Override
+		public void putUTXO(WriteBatch batch, String transactionId, int index, TransactionOutput output, long height) {
+			utxos.put(transactionId + ":" + index, output);
+			writes++;
+		}
+
+		@Override
+		public void deleteUTXO(WriteBatch batch, String transactionId, int index) {
+			utxos.remove(transactionId + ":" + index);
+			writes++;
+		}
+
+		@Override
+		public void putAddressIndex(WriteBatch batch, byte[] publicKeyHash, String transactionId, int index, int value) {
+		}
+
+		@Override
+		public void deleteAddressIndex(WriteBatch batch, byte[] publicKeyHash, String transactionId, int index, int value) {
+		}
+
+		@Override
+		public void putBalance(WriteBatch batch, byte[] publicKeyHash, long balance) {
+			balances.put(Hex.encodeHexString(publicKeyHash), balance);
+		}
+
+		@Override
+		public void putChainStateTip(WriteBatch batch, String blockHash) {
+			tip = blockHash;
+		}
+
+		@Override
+		public void writeBatch(WriteBatch batch) {
+		}
+	}
+
+}
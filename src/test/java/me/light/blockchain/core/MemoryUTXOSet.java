@@ -0,0 +1,32 @@
+package me.light.blockchain.core;
+
+import com.google.common.collect.Maps;
+import org.apache.commons.codec.binary.Hex;
+
+import java.util.Map;
+
+/**
+ * 测试使用的内存中的UTXO池
+ *
+ * @author light.hao
+ * @create 2026-10-19-10:10
+ */
+class MemoryUTXOSet extends UTXOSet {
+
+	private final Map<String, TransactionOutput[]> utxos = Maps.newHashMap();
+
+	void add(Transaction transaction) {
+		utxos.put(Hex.encodeHexString(transaction.getTransactionId()), transaction.getOutputs());
+	}
+
+	@Override
+	public TransactionOutput findUTXO(String transactionId, int index) {
+		TransactionOutput[] outputs = utxos.get(transactionId);
+		return outputs == null || index < 0 || index >= outputs.length ? null : outputs[index];
+	}
+
+	@Override
+	public boolean hasUTXOs(String transactionId) {
+		return utxos.containsKey(transactionId);
+	}
+}
@@ -0,0 +1,159 @@
+package me.light.blockchain.core;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 交易池的测试，UTXO池使用内存中的实现
+ *
+ * @author light.hao
+ * @create 2026-10-19-10:15
+ */
+public class MempoolTests {
+
+	private TransactionFixture fixture;
+
+	private Transaction prevTransaction;
+
+	private MemoryUTXOSet utxoSet;
+
+	@Before
+	public void setUp() {
+		fixture = new TransactionFixture(10, 10, 10, 10);
+		prevTransaction = fixture.prevTransaction;
+		utxoSet = fixture.utxoSet;
+	}
+
+	@Test
+	public void testConflict() throws Exception {
+		Mempool mempool = new Mempool(utxoSet, 10, Long.MAX_VALUE);
+		Transaction transaction = spend(prevTransaction, 0, 9);
+		mempool.add(transaction);
+		assertTrue(mempool.isSpent(Hex.encodeHexString(prevTransaction.getTransactionId()), 0));
+
+		assertRejected("Conflicts with mempool transaction", mempool, spend(prevTransaction, 0, 8));
+		assertRejected("Transaction already in mempool", mempool, transaction);
+		assertEquals(1, mempool.size());
+	}
+
+	@Test
+	public void testEvictLowestFeeRateWithDescendants() throws Exception {
+		Mempool mempool = new Mempool(utxoSet, 3, Long.MAX_VALUE);
+		Transaction low = spend(prevTransaction, 0, 9);
+		Transaction lowChild = spend(low, 0, 5);
+		Transaction middle = spend(prevTransaction, 1, 7);
+		mempool.add(low);
+		mempool.add(lowChild);
+		mempool.add(middle);
+
+		// 手续费率最低的交易被淘汰时，花费它的输出的子交易一起被淘汰
+		Transaction high = spend(prevTransaction, 2, 2);
+		mempool.add(high);
+		assertEquals(2, mempool.size());
+		assertFalse(mempool.contains(Hex.encodeHexString(low.getTransactionId())));
+		assertFalse(mempool.contains(Hex.encodeHexString(lowChild.getTransactionId())));
+		assertFalse(mempool.isSpent(Hex.encodeHexString(prevTransaction.getTransactionId()), 0));
+	}
+
+	@Test
+	public void testRejectWhenFull() throws Exception {
+		Mempool mempool = new Mempool(utxoSet, 1, Long.MAX_VALUE);
+		mempool.add(spend(prevTransaction, 0, 5));
+		assertRejected("Mempool full, fee rate too low", mempool, spend(prevTransaction, 1, 9));
+		assertEquals(1, mempool.size());
+		assertFalse(mempool.isSpent(Hex.encodeHexString(prevTransaction.getTransactionId()), 1));
+	}
+
+	@Test
+	public void testBlockTemplateSelectsAncestorPackages() throws Exception {
+		Mempool mempool = new Mempool(utxoSet, 10, Long.MAX_VALUE);
+		Transaction parent = spend(prevTransaction, 0, 10);
+		Transaction child = spend(parent, 0, 1);
+		Transaction other = spend(prevTransaction, 1, 5);
+		mempool.add(parent);
+		mempool.add(other);
+		mempool.add(child);
+
+		// 子交易的手续费率最高，父交易没有手续费也随子交易一起被选择，并排在子交易之前
+		assertArrayEquals(new Transaction[]{parent, other, child}, mempool.getBlockTemplate(3));
+		assertArrayEquals(new Transaction[]{parent, child}, mempool.getBlockTemplate(2));
+		assertArrayEquals(new Transaction[]{other}, mempool.getBlockTemplate(1));
+	}
+
+	@Test
+	public void testRemoveForBlock() throws Exception {
+		Mempool mempool = new Mempool(utxoSet, 10, Long.MAX_VALUE);
+		Transaction confirmed = spend(prevTransaction, 0, 9);
+		Transaction conflict = spend(prevTransaction, 1, 9);
+		Transaction conflictChild = spend(conflict, 0, 8);
+		mempool.add(confirmed);
+		mempool.add(conflict);
+		mempool.add(conflictChild);
+
+		Transaction blockConflict = spend(prevTransaction, 1, 8);
+		mempool.removeForBlock(new Block("", "", new Transaction[]{confirmed, blockConflict}, 0));
+		assertEquals(0, mempool.size());
+		assertEquals(0, mempool.getTotalBytes());
+		assertFalse(mempool.isSpent(Hex.encodeHexString(conflict.getTransactionId()), 0));
+	}
+
+	@Test
+	public void testListenerNotifiedOnUpdate() throws Exception {
+		Mempool mempool = new Mempool(utxoSet, 10, Long.MAX_VALUE);
+		int[] updates = {0};
+		Runnable listener = () -> updates[0]++;
+		mempool.addListener(listener);
+
+		Transaction transaction = spend(prevTransaction, 0, 9);
+		mempool.add(transaction);
+		assertEquals(1, updates[0]);
+		assertRejected("Conflicts with mempool transaction", mempool, spend(prevTransaction, 0, 8));
+		assertEquals(1, updates[0]);
+
+		// 区块中没有交易池中的交易时，交易集合没有变化
+		mempool.removeForBlock(new Block("", "", new Transaction[]{spend(prevTransaction, 1, 9)}, 0));
+		assertEquals(1, updates[0]);
+		mempool.removeForBlock(new Block("", "", new Transaction[]{transaction}, 0));
+		assertEquals(2, updates[0]);
+
+		mempool.removeListener(listener);
+		mempool.add(spend(prevTransaction, 2, 9));
+		assertEquals(2, updates[0]);
+	}
+
+	@Test
+	public void testUnconfirmedOutputs() throws Exception {
+		Mempool mempool = new Mempool(utxoSet, 10, Long.MAX_VALUE);
+		Transaction parent = spend(prevTransaction, 0, 9);
+		mempool.add(parent);
+		List<UnspentOutput> utxos = mempool.getUnspentOutputs(fixture.publicKeyHash);
+		assertEquals(1, utxos.size());
+		assertEquals(Hex.encodeHexString(parent.getTransactionId()), utxos.get(0).getTransactionId());
+		assertEquals(9, utxos.get(0).getOutput().getValue());
+		assertTrue(mempool.getUnspentOutputs(new byte[]{1}).isEmpty());
+
+		mempool.add(spend(parent, 0, 8));
+		utxos = mempool.getUnspentOutputs(fixture.publicKeyHash);
+		assertEquals(1, utxos.size());
+		assertEquals(8, utxos.get(0).getOutput().getValue());
+	}
+
+	private void assertRejected(String reason, Mempool mempool, Transaction transaction) {
+		try {
+			mempool.add(transaction);
+			fail("Expected rejected transaction: " + reason);
+		} catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(reason));
+		}
+	}
+
+	private Transaction spend(Transaction prev, int index, int value) throws Exception {
+		return fixture.spend(prev, index, value);
+	}
+
+}
@@ -0,0 +1,71 @@
+package me.light.blockchain.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 签名hash的测试
+ *
+ * @author light.hao
+ * @create 2026-10-19-09:50
+ */
+public class SignatureHasherTests {
+
+	private final TransactionOutput prevOutput = new TransactionOutput(5, new byte[20]);
+
+	@Test
+	public void testHashCommitsToInputAndSpentOutput() {
+		Transaction transaction = newTransaction(3, 9);
+		SignatureHasher hasher = new SignatureHasher(transaction);
+		byte[] hash = hasher.hash(0, prevOutput);
+
+		assertEquals(32, hash.length);
+		assertArrayEquals(hash, new SignatureHasher(newTransaction(3, 9)).hash(0, prevOutput));
+		assertFalse(Arrays.equals(hash, hasher.hash(1, prevOutput)));
+		assertFalse(Arrays.equals(hash, hasher.hash(0, new TransactionOutput(6, new byte[20]))));
+		assertFalse(Arrays.equals(hash, hasher.hash(0, new TransactionOutput(5, new byte[]{1}))));
+	}
+
+	@Test
+	public void testHashCommitsToWholeTransaction() {
+		byte[] hash = new SignatureHasher(newTransaction(3, 9)).hash(0, prevOutput);
+		// 其他交易输入引用的输出点和任意一个交易输出的变化都会改变每个交易输入的签名hash
+		assertFalse(Arrays.equals(hash, new SignatureHasher(newTransaction(4, 9)).hash(0, prevOutput)));
+		assertFalse(Arrays.equals(hash, new SignatureHasher(newTransaction(3, 8)).hash(0, prevOutput)));
+	}
+
+	@Test
+	public void testHashIgnoresSignatures() {
+		Transaction transaction = newTransaction(3, 9);
+		byte[] hash = new SignatureHasher(transaction).hash(0, prevOutput);
+		transaction.getInputs()[1].setSignature(new byte[]{1, 2, 3});
+		assertArrayEquals(hash, new SignatureHasher(transaction).hash(0, prevOutput));
+	}
+
+	@Test
+	public void testTagSignature() {
+		byte[] derSignature = {0x30, 2, 7, 8};
+		byte[] signature = SignatureHasher.tagSignature(derSignature);
+		assertTrue(SignatureHasher.isTaggedSignature(signature));
+		assertArrayEquals(derSignature, SignatureHasher.derSignature(signature));
+
+		assertFalse(SignatureHasher.isTaggedSignature(derSignature));
+		assertFalse(SignatureHasher.isTaggedSignature(null));
+		signature[signature.length - 1] = 0x02;
+		assertFalse(SignatureHasher.isTaggedSignature(signature));
+	}
+
+	private static Transaction newTransaction(int secondOutputIndex, int value) {
+		byte[] prevTransactionId = new byte[32];
+		Transaction transaction = new Transaction(null, new TransactionInput[]{
+				new TransactionInput(prevTransactionId, 0, null, new byte[65]),
+				new TransactionInput(prevTransactionId, secondOutputIndex, null, new byte[65])},
+				new TransactionOutput[]{new TransactionOutput(value, new byte[20])});
+		transaction.setTransactionId(transaction.computeTransactionId());
+		return transaction;
+	}
+
+}
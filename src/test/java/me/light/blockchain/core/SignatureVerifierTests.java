@@ -0,0 +1,54 @@
+package me.light.blockchain.core;
+
+import com.google.common.collect.Maps;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * 签名验证的测试
+ *
+ * @author light.hao
+ * @create 2026-10-18-19:30
+ */
+public class SignatureVerifierTests {
+
+	@Test
+	public void testVerifyTransactions() throws Exception {
+		Wallet wallet = new Wallet();
+		wallet.initWallet();
+		byte[] publicKeyHash = new byte[20];
+
+		Transaction prevTransaction = new Transaction(null, new TransactionInput[]{
+				new TransactionInput(new byte[]{}, -1, null, "prev".getBytes())},
+				new TransactionOutput[]{new TransactionOutput(5, publicKeyHash), new TransactionOutput(7, publicKeyHash)});
+		prevTransaction.setTransactionId(prevTransaction.hash());
+		Map<String, Transaction> prevTransactions = Maps.newHashMap();
+		prevTransactions.put(Hex.encodeHexString(prevTransaction.getTransactionId()), prevTransaction);
+
+		Transaction transaction = new Transaction(null, new TransactionInput[]{
+				new TransactionInput(prevTransaction.getTransactionId(), 0, null, wallet.getPublicKey()),
+				new TransactionInput(prevTransaction.getTransactionId(), 1, null, wallet.getPublicKey())},
+				new TransactionOutput[]{new TransactionOutput(12, publicKeyHash)});
+		transaction.setTransactionId(transaction.hash());
+		transaction.sign(wallet.getPrivateKey(), prevTransactions);
+
+		assertTrue(transaction.verify(prevTransactions));
+		long hitCount = SignatureVerifier.getCacheStats().hitCount();
+		assertTrue(SignatureVerifier.verifyTransactions(new Transaction[]{transaction, transaction}, prevTransactions));
+		assertEquals(hitCount + 4, SignatureVerifier.getCacheStats().hitCount());
+
+		transaction.getOutputs()[0].setValue(13);
+		assertFalse(SignatureVerifier.verifyTransactions(new Transaction[]{transaction}, prevTransactions));
+	}
+
+	@Test
+	public void testMalformedSignature() {
+		assertFalse(SignatureVerifier.verify(new byte[32], new byte[65], new byte[]{1, 2, 3}));
+		assertFalse(SignatureVerifier.verify(new byte[32], new byte[10], new byte[]{1, 2, 3}));
+	}
+
+}
@@ -0,0 +1,73 @@
+package me.light.blockchain.core;
+
+import com.google.common.collect.Maps;
+import me.light.blockchain.util.BitcoinAddressUtils;
+import org.apache.commons.codec.binary.Hex;
+
+import java.util.Map;
+
+/**
+ * 测试使用的交易数据：一个钱包、一笔输出都锁定到该钱包的交易，以及包含这笔交易的内存UTXO池
+ *
+ * @author light.hao
+ * @create 2026-10-19-11:40
+ */
+class TransactionFixture {
+
+	final Wallet wallet;
+
+	final byte[] publicKeyHash;
+
+	final Transaction prevTransaction;
+
+	final MemoryUTXOSet utxoSet = new MemoryUTXOSet();
+
+	/**
+	 * @param values 交易输出的金额
+	 */
+	TransactionFixture(int... values) {
+		wallet = newWallet();
+		publicKeyHash = BitcoinAddressUtils.ripeMD160Hash(wallet.getPublicKey());
+		TransactionOutput[] outputs = new TransactionOutput[values.length];
+		for (int i = 0; i < values.length; i++) {
+			outputs[i] = new TransactionOutput(values[i], publicKeyHash);
+		}
+		prevTransaction = newTransaction(new TransactionInput[]{
+				new TransactionInput(new byte[]{}, -1, null, "prev".getBytes())}, outputs);
+		utxoSet.add(prevTransaction);
+	}
+
+	/**
+	 * 使用钱包花费一笔交易的一个输出，唯一的交易输出锁定到钱包
+	 */
+	Transaction spend(Transaction prev, int index, int value) throws Exception {
+		return this.spend(wallet, prev, new int[]{index}, value);
+	}
+
+	/**
+	 * 使用指定的钱包签名花费一笔交易的多个输出，唯一的交易输出锁定到夹具的钱包
+	 */
+	Transaction spend(Wallet signer, Transaction prev, int[] indexes, int value) throws Exception {
+		TransactionInput[] inputs = new TransactionInput[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			inputs[i] = new TransactionInput(prev.getTransactionId(), indexes[i], null, signer.getPublicKey());
+		}
+		Transaction transaction = newTransaction(inputs, new TransactionOutput(value, publicKeyHash));
+		Map<String, Transaction> prevTransactions = Maps.newHashMap();
+		prevTransactions.put(Hex.encodeHexString(prev.getTransactionId()), prev);
+		transaction.sign(signer.getPrivateKey(), prevTransactions);
+		return transaction;
+	}
+
+	static Transaction newTransaction(TransactionInput[] inputs, TransactionOutput... outputs) {
+		Transaction transaction = new Transaction(null, inputs, outputs);
+		transaction.setTransactionId(transaction.computeTransactionId());
+		return transaction;
+	}
+
+	static Wallet newWallet() {
+		Wallet wallet = new Wallet();
+		wallet.initWallet();
+		return wallet;
+	}
+}
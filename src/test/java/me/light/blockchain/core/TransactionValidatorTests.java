@@ -0,0 +1,116 @@
+package me.light.blockchain.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 交易验证的测试，UTXO池使用内存中的实现
+ *
+ * @author light.hao
+ * @create 2026-10-19-09:30
+ */
+public class TransactionValidatorTests {
+
+	private TransactionFixture fixture;
+
+	private byte[] publicKeyHash;
+
+	private Transaction prevTransaction;
+
+	private MemoryUTXOSet utxoSet;
+
+	@Before
+	public void setUp() {
+		fixture = new TransactionFixture(5, 7);
+		publicKeyHash = fixture.publicKeyHash;
+		prevTransaction = fixture.prevTransaction;
+		utxoSet = fixture.utxoSet;
+	}
+
+	@Test
+	public void testValidate() throws Exception {
+		Transaction transaction = spend(new int[]{0, 1}, 10);
+		Transaction child = fixture.spend(transaction, 0, 10);
+		TransactionValidator validator = new TransactionValidator(utxoSet);
+		validator.validate(new Transaction[]{transaction, child});
+		assertEquals(2, validator.getFees());
+	}
+
+	@Test
+	public void testDoubleSpend() throws Exception {
+		assertInvalid("Double spend", spend(new int[]{0}, 5), spend(new int[]{0, 1}, 12));
+	}
+
+	@Test
+	public void testMissingOutput() throws Exception {
+		Transaction unknown = TransactionFixture.newTransaction(new TransactionInput[]{
+				new TransactionInput(new byte[]{}, -1, null, "unknown".getBytes())},
+				new TransactionOutput(5, publicKeyHash));
+		assertInvalid("Missing or spent output", fixture.spend(unknown, 0, 5));
+	}
+
+	@Test
+	public void testSpendWithForeignKey() throws Exception {
+		// 用自己的私钥签名能通过签名验证，但交易输出没有锁定到这个公钥
+		Wallet thief = TransactionFixture.newWallet();
+		assertInvalid("Output is not locked to the input key", fixture.spend(thief, prevTransaction, new int[]{0}, 5));
+	}
+
+	@Test
+	public void testOutputsExceedInputs() throws Exception {
+		assertInvalid("Outputs exceed inputs", spend(new int[]{0}, 6));
+	}
+
+	@Test
+	public void testTransactionIdMustMatchData() throws Exception {
+		Transaction transaction = spend(new int[]{0}, 5);
+		transaction.setTransactionId(prevTransaction.getTransactionId());
+		assertInvalid("Transaction id does not match", transaction);
+
+		Transaction coinbase = Transaction.newCoinbaseTransaction(fixture.wallet.getAddress(), "");
+		coinbase.getOutputs()[0].setValue(Transaction.SUBSIDY - 1);
+		assertInvalid("Transaction id does not match", coinbase);
+	}
+
+	@Test
+	public void testTransactionWithoutInputs() throws Exception {
+		assertInvalid("Transaction has no inputs", TransactionFixture.newTransaction(new TransactionInput[0]));
+	}
+
+	@Test
+	public void testCoinbaseLimitedToSubsidyAndFees() throws Exception {
+		Transaction transaction = spend(new int[]{0, 1}, 10);
+		Transaction coinbase = TransactionFixture.newTransaction(new TransactionInput[]{
+				new TransactionInput(new byte[]{}, -1, null, "reward".getBytes())},
+				new TransactionOutput(Transaction.SUBSIDY + 2, publicKeyHash));
+		new TransactionValidator(utxoSet).validate(new Transaction[]{transaction, coinbase});
+
+		coinbase = TransactionFixture.newTransaction(new TransactionInput[]{
+				new TransactionInput(new byte[]{}, -1, null, "reward".getBytes())},
+				new TransactionOutput(Transaction.SUBSIDY + 3, publicKeyHash));
+		assertInvalid("Coinbase exceeds subsidy and fees", transaction, coinbase);
+	}
+
+	@Test
+	public void testInvalidSignature() throws Exception {
+		Transaction transaction = spend(new int[]{0}, 5);
+		transaction.getInputs()[0].setSignature(spend(new int[]{1}, 5).getInputs()[0].getSignature());
+		assertInvalid("Invalid signature", transaction);
+	}
+
+	private void assertInvalid(String reason, Transaction... transactions) {
+		try {
+			new TransactionValidator(utxoSet).validate(transactions);
+			fail("Expected invalid transactions: " + reason);
+		} catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(reason));
+		}
+	}
+
+	private Transaction spend(int[] indexes, int value) throws Exception {
+		return fixture.spend(fixture.wallet, prevTransaction, indexes, value);
+	}
+
+}
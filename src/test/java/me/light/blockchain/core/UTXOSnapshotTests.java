@@ -0,0 +1,108 @@
+package me.light.blockchain.core;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * UTXO池快照文件格式的测试
+ *
+ * @author light.hao
+ * @create 2026-10-19-11:20
+ */
+public class UTXOSnapshotTests {
+
+	private static final String BLOCK_HASH = "00000000000000000000000000000000000000000000000000000000000000ab";
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		List<UnspentOutput> utxos = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			byte[] transactionId = new byte[32];
+			transactionId[31] = (byte) i;
+			utxos.add(new UnspentOutput(Hex.encodeHexString(transactionId), i,
+					new TransactionOutput(i * 100, new byte[]{(byte) i, 1, 2}), i + 7));
+		}
+		byte[] snapshot = write(utxos);
+
+		UTXOSnapshot.Reader reader = newReader(snapshot);
+		assertEquals(BLOCK_HASH, reader.getBlockHash());
+		assertEquals(9, reader.getHeight());
+		List<UnspentOutput> read = new ArrayList<>();
+		reader.forEachRemaining(read::add);
+		assertEquals(utxos.size(), read.size());
+		for (int i = 0; i < utxos.size(); i++) {
+			assertEquals(utxos.get(i).getTransactionId(), read.get(i).getTransactionId());
+			assertEquals(utxos.get(i).getIndex(), read.get(i).getIndex());
+			assertEquals(utxos.get(i).getHeight(), read.get(i).getHeight());
+			assertEquals(utxos.get(i).getOutput().getValue(), read.get(i).getOutput().getValue());
+			assertArrayEquals(utxos.get(i).getOutput().getPublicKeyHash(), read.get(i).getOutput().getPublicKeyHash());
+		}
+
+		UTXOSnapshot.Reader empty = newReader(write(new ArrayList<>()));
+		assertFalse(empty.hasNext());
+	}
+
+	@Test
+	public void testCorruption() throws Exception {
+		List<UnspentOutput> utxos = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			utxos.add(new UnspentOutput(BLOCK_HASH, i, new TransactionOutput(i, new byte[20]), 1));
+		}
+		byte[] snapshot = write(utxos);
+
+		// 文件头48字节，之后是第一个数据块的记录数和数据长度
+		assertCorrupted("checksum mismatch", flip(snapshot, 4 + 4 + 32 + 8 + 8));
+		assertCorrupted("count mismatch", flip(snapshot, snapshot.length - 32 - 8));
+		assertCorrupted("digest mismatch", flip(snapshot, snapshot.length - 1));
+		assertCorrupted("file is truncated", Arrays.copyOf(snapshot, snapshot.length - 1));
+
+		try {
+			newReader(flip(snapshot, 0));
+			fail("Expected invalid snapshot header");
+		} catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("Not a UTXO snapshot file"));
+		}
+	}
+
+	private static void assertCorrupted(String reason, byte[] snapshot) throws Exception {
+		UTXOSnapshot.Reader reader = newReader(snapshot);
+		try {
+			reader.forEachRemaining(utxo -> {
+			});
+			fail("Expected corrupted snapshot: " + reason);
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(reason));
+		}
+	}
+
+	private static byte[] write(List<UnspentOutput> utxos) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			UTXOSnapshot.Writer writer = new UTXOSnapshot.Writer(out, BLOCK_HASH, 9, 2);
+			utxos.forEach(writer::write);
+			assertEquals(utxos.size(), writer.finish());
+		}
+		return bytes.toByteArray();
+	}
+
+	private static UTXOSnapshot.Reader newReader(byte[] snapshot) throws Exception {
+		return new UTXOSnapshot.Reader(new DataInputStream(new ByteArrayInputStream(snapshot)), null);
+	}
+
+	private static byte[] flip(byte[] bytes, int position) {
+		byte[] copy = bytes.clone();
+		copy[position] ^= 0x01;
+		return copy;
+	}
+
+}
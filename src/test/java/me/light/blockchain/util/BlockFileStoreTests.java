@@ -0,0 +1,47 @@
+package me.light.blockchain.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 区块文件存储的测试
+ *
+ * @author light.hao
+ * @create 2026-10-18-16:40
+ */
+public class BlockFileStoreTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testAppendAndRollOver() throws Exception {
+		File directory = folder.newFolder("blocks");
+		BlockFilePosition first;
+		BlockFilePosition second;
+		try (BlockFileStore store = new BlockFileStore(directory, 64, false)) {
+			first = store.append(new byte[50]);
+			second = store.append(new byte[]{1, 2, 3});
+			assertEquals(0, first.getFileNumber());
+			assertEquals(1, second.getFileNumber());
+
+			ByteBuffer buffer = store.read(second);
+			assertEquals(3, buffer.remaining());
+			assertEquals(3, buffer.get(2));
+		}
+
+		try (BlockFileStore store = new BlockFileStore(directory, 64, false)) {
+			assertEquals(50, store.read(first).remaining());
+			BlockFilePosition third = store.append(new byte[]{4});
+			assertEquals(1, third.getFileNumber());
+			assertEquals(4, store.read(third).get(0));
+		}
+	}
+
+}